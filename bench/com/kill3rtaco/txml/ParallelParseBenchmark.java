@@ -0,0 +1,193 @@
+package com.kill3rtaco.txml;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Checks {@link TXML#parseXMLParallel(String, ForkJoinPool)} against {@link TXML#parseXML(String)}, then times
+ * both on one large, deeply nested document.
+ * <p>
+ * The check parses random documents, some of them corrupted at one character and some ending in a misshaped
+ * close tag, from a string and from a file, and fails if any result or error differs from the sequential one.
+ * <p>
+ * Usage: {@code java com.kill3rtaco.txml.ParallelParseBenchmark [size [threads...]]}, where size is roughly the
+ * number of elements in the timed document (1,000,000 by default) and each thread count is timed in turn (the
+ * number of processors by default).
+ * @author KILL3RTACO
+ *
+ */
+public class ParallelParseBenchmark {
+
+	private static final int	CHECKS	= 60;
+	private static final int	RUNS	= 5;
+
+	public static void main(String[] args) throws IOException {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int[] threads = new int[Math.max(1, args.length - 1)];
+		threads[0] = Runtime.getRuntime().availableProcessors();
+		for(int i = 1; i < args.length; i++) {
+			threads[i - 1] = Integer.parseInt(args[i]);
+		}
+		int mismatches = check(new ForkJoinPool(threads[threads.length - 1]));
+		System.out.println(mismatches + " mismatches in " + CHECKS + " random documents and their corrupted closes");
+		if(mismatches > 0) {
+			System.exit(1);
+		}
+		StringBuilder builder = new StringBuilder();
+		generate(builder, new Random(0), 0, size, false);
+		String source = builder.toString();
+		System.out.println(source.length() + " characters");
+		for(int t : threads) {
+			ForkJoinPool pool = new ForkJoinPool(t);
+			for(int run = 0; run < RUNS; run++) {
+				long start = System.nanoTime();
+				TXML.parseXML(source);
+				long sequential = System.nanoTime();
+				TXML.parseXMLParallel(source, pool);
+				long parallel = System.nanoTime();
+				System.out.println(t + " threads: parseXML " + (sequential - start) / 1000000 + "ms, parseXMLParallel "
+						+ (parallel - sequential) / 1000000 + "ms");
+			}
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Parse random documents sequentially and in parallel, from a string and from a file
+	 * @return How many of them did not give the same result, or the same error, all three ways
+	 */
+	private static int check(ForkJoinPool pool) throws IOException {
+		Path file = Files.createTempFile("txml", ".xml");
+		int mismatches = 0;
+		try {
+			for(int i = 0; i < CHECKS; i++) {
+				Random random = new Random(i);
+				StringBuilder builder = new StringBuilder("<?xml version=\"1.0\"?>\n");
+				generate(builder, random, 0, 20000 + random.nextInt(60000), i % 4 == 1);
+				String source = builder.toString();
+				if(i % 3 == 2) {
+					char[] chars = source.toCharArray();
+					chars[random.nextInt(chars.length)] = "<>/\"'=x !-".charAt(random.nextInt(10));
+					source = new String(chars);
+				}
+				mismatches += check(source, file, pool) ? 0 : 1;
+			}
+
+// Close tags of elements that span chunks
+
+			StringBuilder builder = new StringBuilder("<root>");
+			while (builder.length() < 1200000) {
+				builder.append("<a k='v'>x</a>\n");
+			}
+			for(String close : new String[] {"</root>", "</root >", "</root junk>", "</root/>", "</root a='b'>", "</rootx>"}) {
+				mismatches += check(builder + close, file, pool) ? 0 : 1;
+			}
+		} finally {
+			Files.delete(file);
+		}
+		return mismatches;
+	}
+
+	private static boolean check(String source, Path file, ForkJoinPool pool) throws IOException {
+		Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+		String expected = parse(source, null, null);
+		if(!expected.equals(parse(source, null, pool)) || !expected.equals(parse(null, file, pool))) {
+			System.out.println("Mismatch: " + expected.substring(0, Math.min(100, expected.length())));
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Parse a string or file, sequentially if there is no pool
+	 * @return The nodes written out, or the error
+	 */
+	private static String parse(String source, Path file, ForkJoinPool pool) {
+		try {
+			List<XMLNode> nodes;
+			if(file != null) {
+				nodes = TXML.parseXMLParallel(file, StandardCharsets.UTF_8, pool);
+			} else if(pool != null) {
+				nodes = TXML.parseXMLParallel(source, pool);
+			} else {
+				nodes = TXML.parseXML(source);
+			}
+			StringBuilder builder = new StringBuilder();
+			for(XMLNode n : nodes) {
+				builder.append(n.toString(0)).append('\n');
+			}
+			return builder.toString();
+		} catch (TXMLException e) {
+			return "Error: " + e.getMessage();
+		}
+	}
+
+	/**
+	 * Write a random element with about the given number of elements in it. Attribute values, comments, CDATA
+	 * sections and processing instructions hold markup, to mislead chunks that guess where a tag starts.
+	 * @param mixed Whether to put text next to child elements now and then
+	 */
+	private static void generate(StringBuilder builder, Random random, int depth, int size, boolean mixed) {
+		String name = "e" + random.nextInt(6);
+		builder.append('<').append(name);
+		if(random.nextInt(3) == 0) {
+			builder.append(" a=\"x>y\" b='c<d'");
+		}
+		if(size <= 1 || depth > 60) {
+			if(random.nextBoolean()) {
+				builder.append("/>");
+			} else {
+				builder.append(">t").append(random.nextInt(100)).append("</").append(name).append('>');
+			}
+			return;
+		}
+		builder.append('>');
+		if(mixed && random.nextInt(3000) == 0) {
+			builder.append("mixed");
+		}
+		int children = depth % 7 == 3 ? 1 : 1 + random.nextInt(depth < 3 ? 8 : (random.nextInt(5) == 0 ? 40 : 3));
+		int left = size - 1;
+		for(int i = 0; i < children && left > 0; i++) {
+			int child = i == children - 1 ? left : random.nextInt(left) + 1;
+			left -= child;
+			builder.append(random.nextBoolean() ? '\n' : ' ');
+			switch(random.nextInt(30)) {
+				case 0:
+					builder.append("<!-- <c> '\" -->");
+					break;
+				case 1:
+					builder.append("<![CDATA[ </e1> ]]>");
+					break;
+				case 2:
+					builder.append("<?pi <x> ?>");
+					break;
+			}
+			generate(builder, random, depth + 1, child, mixed);
+		}
+		builder.append("</").append(name).append(" >");
+	}
+
+}
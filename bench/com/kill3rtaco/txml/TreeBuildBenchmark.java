@@ -0,0 +1,122 @@
+package com.kill3rtaco.txml;
+
+import java.util.List;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Times {@link TXML#parseXML(String)} on a deep document (a single chain of nested elements) and a wide one (a
+ * long list of small records), and reports the throughput of each. Parsing runs on a thread with a small stack,
+ * so the deep document also checks that the depth the tree is built to is not limited by the stack.
+ * <p>
+ * Usage: {@code java com.kill3rtaco.txml.TreeBuildBenchmark [depth [records]]}, where depth is how deeply the
+ * deep document is nested (100,000 by default) and records is how many records the wide document holds (200,000
+ * by default).
+ * @author KILL3RTACO
+ *
+ */
+public class TreeBuildBenchmark {
+
+	private static final int	WARMUP		= 3;
+	private static final int	RUNS		= 10;
+	private static final long	STACK_SIZE	= 512 * 1024;
+
+	public static void main(String[] args) throws InterruptedException {
+		final int depth = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		final int records = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		Thread thread = new Thread(null, new Runnable() {
+
+			@Override
+			public void run() {
+				time("deep", deep(depth), depth);
+				time("wide", wide(records), records * 4 + 1);
+			}
+
+		}, "TreeBuildBenchmark", STACK_SIZE);
+		thread.start();
+		thread.join();
+	}
+
+	/**
+	 * Parse a source a few times to warm up, then time it
+	 * @param nodes How many nodes the source holds, to check the tree built
+	 */
+	private static void time(String name, String source, int nodes) {
+		for(int run = 0; run < WARMUP; run++) {
+			parse(source, nodes);
+		}
+		long best = Long.MAX_VALUE;
+		long total = 0;
+		for(int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			parse(source, nodes);
+			long time = System.nanoTime() - start;
+			best = Math.min(best, time);
+			total += time;
+		}
+		System.out.println(name + ": " + source.length() + " characters, " + nodes + " nodes, mean " + total / RUNS
+				/ 1000000 + "ms, best " + best / 1000000 + "ms, " + throughput(source, best) + " million characters/s");
+	}
+
+	private static void parse(String source, int nodes) {
+		List<XMLNode> parsed = TXML.parseXML(source);
+		long count = parsed.size();
+		for(XMLNode n : parsed) {
+			count += n.descendants().count();
+		}
+		if(count != nodes) {
+			throw new IllegalStateException("Expected " + nodes + " nodes, but parsed " + count);
+		}
+	}
+
+	private static String throughput(String source, long nanos) {
+		return String.format("%.1f", source.length() * 1000.0 / nanos);
+	}
+
+	/**
+	 * A chain of elements nested depth deep, each with an attribute, around a little text
+	 */
+	private static String deep(int depth) {
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < depth; i++) {
+			builder.append("<level n=\"").append(i).append("\">");
+		}
+		builder.append("leaf");
+		for(int i = 0; i < depth; i++) {
+			builder.append("</level>");
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * A root holding the given number of records, each of three fields
+	 */
+	private static String wide(int records) {
+		StringBuilder builder = new StringBuilder("<records>\n");
+		for(int i = 0; i < records; i++) {
+			builder.append("\t<record id=\"").append(i).append("\">");
+			builder.append("<name>Record ").append(i).append("</name>");
+			builder.append("<value>").append(i * 31 % 1000).append("</value>");
+			builder.append("<flag/>");
+			builder.append("</record>\n");
+		}
+		return builder.append("</records>").toString();
+	}
+
+}
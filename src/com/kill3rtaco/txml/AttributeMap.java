@@ -1,10 +1,13 @@
 package com.kill3rtaco.txml;
 
+import java.io.IOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
 /*
  * TXML
@@ -25,13 +28,26 @@ import java.util.Map;
  */
 
 /**
- * Represents an ordered list of key and value pairs
+ * Represents an ordered list of key and value pairs. Keys are kept in insertion order; once there are more than
+ * a few of them, they are also indexed by an open-addressing hash table so lookups take a single probe.
  * @author KILL3RTACO
  *
  */
 public class AttributeMap implements Cloneable {
 	
-	private List<String>	_keys, _values;
+	/** The most keys that are searched linearly before the hash index is used */
+	private static final int	INDEX_THRESHOLD	= 8;
+	
+	private List<String>		_keys, _values;
+	
+	// Hash slot -> position in _keys + 1, or 0 if the slot is empty
+	private int[]				_index;
+	
+	// The number of keys in _index, or -1 if it must be rebuilt
+	private int					_indexed;
+	
+	// Whether this map belongs to shared nodes, and so may no longer change
+	private boolean				_shared;
 	
 	/**
 	 * Create a new AttributeMap with no key and value pairs
@@ -39,6 +55,8 @@ public class AttributeMap implements Cloneable {
 	public AttributeMap() {
 		_keys = new ArrayList<String>();
 		_values = new ArrayList<String>();
+		_index = null;
+		_indexed = -1;
 	}
 	
 	/**
@@ -62,11 +80,21 @@ public class AttributeMap implements Cloneable {
 	 * @param value The value
 	 */
 	public void put(String key, String value) {
-		if(_keys.contains(key)) {
-			_values.set(_keys.indexOf(key), value);
+		checkShared();
+		int i = indexOf(key);
+		if(i >= 0) {
+			_values.set(i, value);
 		} else {
 			_keys.add(key);
 			_values.add(value);
+			if(_index != null && _indexed == _keys.size() - 1) {
+				if(_keys.size() * 2 > _index.length) {
+					_indexed = -1;
+				} else {
+					insert(_keys.size() - 1, _index.length - 1);
+					_indexed += 1;
+				}
+			}
 		}
 	}
 	
@@ -95,37 +123,62 @@ public class AttributeMap implements Cloneable {
 	/**
 	 * Removes a value from this AttributeMap
 	 * @param key The key to be removed, along with its value
-	 * @return The value that was removed
+	 * @return The value that was removed, or null if this AttributeMap did not contain the given key
 	 */
 	public String remove(String key) {
-		int index = _keys.indexOf(key);
+		checkShared();
+		int index = indexOf(key);
+		if(index < 0) {
+			return null;
+		}
 		_keys.remove(index);
+		_indexed = -1;
 		return _values.remove(index);
 	}
 	
+	/**
+	 * Remove all key and value pairs from this AttributeMap
+	 */
+	public void clear() {
+		checkShared();
+		_keys.clear();
+		_values.clear();
+		_index = null;
+		_indexed = -1;
+	}
+	
 	/**
 	 * Test if this AttributeMap contains the given key
 	 * @param key The key to test for
 	 * @return true of this AttributeMap contains the given key
 	 */
 	public boolean containsKey(String key) {
-		return _keys.contains(key);
+		return indexOf(key) >= 0;
 	}
 	
 	/**
-	 * Get a list of keys contained in this AttributeMap
+	 * Get the number of key and value pairs in this AttributeMap
+	 */
+	int size() {
+		return _keys.size();
+	}
+	
+	/**
+	 * Get a list of keys contained in this AttributeMap. Keys may be replaced through the list, unless this
+	 * AttributeMap is shared, but not added or removed.
 	 * @return a list of keys contained in this AttributeMap
 	 */
 	public List<String> getKeys() {
-		return _keys;
+		return new EntryList(true);
 	}
 	
 	/**
-	 * Get a list of values contained in this AttributeMap
+	 * Get a list of values contained in this AttributeMap. Values may be replaced through the list, unless this
+	 * AttributeMap is shared, but not added or removed.
 	 * @return a list of values contained in this AttributeMap
 	 */
 	public List<String> getValues() {
-		return _values;
+		return new EntryList(false);
 	}
 	
 	/**
@@ -135,10 +188,70 @@ public class AttributeMap implements Cloneable {
 	 * @return The value of the given key, or null if this AttributeMap does not contain the given key
 	 */
 	public String get(String key) {
-		if(containsKey(key)) {
-			return _values.get(_keys.indexOf(key));
+		int i = indexOf(key);
+		return i < 0 ? null : _values.get(i);
+	}
+	
+	/**
+	 * Find the position of the given key
+	 * @param key The key to look for
+	 * @return The position of the key in {@code getKeys()}, or -1 if this AttributeMap does not contain it
+	 */
+	private int indexOf(String key) {
+		int size = _keys.size();
+		if(size <= INDEX_THRESHOLD) {
+			for(int i = 0; i < size; i++) {
+				if(same(_keys.get(i), key)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		if(_indexed != size) {
+			reindex();
 		}
-		return null;
+		int mask = _index.length - 1;
+		for(int i = slot(key, mask);; i = (i + 1) & mask) {
+			int position = _index[i];
+			if(position == 0) {
+				return -1;
+			} else if(same(_keys.get(position - 1), key)) {
+				return position - 1;
+			}
+		}
+	}
+	
+	/**
+	 * Rebuild the hash index from the list of keys
+	 */
+	private void reindex() {
+		int size = _keys.size();
+		int capacity = 16;
+		while (capacity < size * 2) {
+			capacity *= 2;
+		}
+		_index = new int[capacity];
+		for(int i = 0; i < size; i++) {
+			insert(i, capacity - 1);
+		}
+		_indexed = size;
+	}
+	
+	private void insert(int position, int mask) {
+		int i = slot(_keys.get(position), mask);
+		while (_index[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		_index[i] = position + 1;
+	}
+	
+	private static int slot(String key, int mask) {
+		int hash = key == null ? 0 : key.hashCode();
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+	
+	private static boolean same(String a, String b) {
+		return a == b || (a != null && a.equals(b));
 	}
 	
 	/**
@@ -146,12 +259,14 @@ public class AttributeMap implements Cloneable {
 	 * @return this
 	 */
 	public AttributeMap sortAlphabetically() {
+		checkShared();
 		Map<String, String> m = toMap();
 		Collections.sort(_keys);
 		_values.clear();
 		for(String s : _keys) {
 			_values.add(m.get(s));
 		}
+		_indexed = -1;
 		return this;
 	}
 	
@@ -161,35 +276,117 @@ public class AttributeMap implements Cloneable {
 	 */
 	public Map<String, String> toMap() {
 		Map<String, String> map = new HashMap<String, String>();
-		for(String s : getKeys()) {
-			map.put(s, get(s));
+		for(int i = 0; i < _keys.size(); i++) {
+			map.put(_keys.get(i), _values.get(i));
 		}
 		return map;
 	}
 	
 	/**
-	 * Create a indentical clone of this AttributeMap
+	 * Get whether this AttributeMap belongs to shared nodes. A shared AttributeMap cannot be changed, but its
+	 * clones can.
+	 * @return true if this AttributeMap is shared
+	 * @see XMLContainer#share()
 	 */
-	public AttributeMap clone() {
-		List<String> keys = new ArrayList<String>();
-		List<String> values = new ArrayList<String>();
-		for(String k : _keys) {
-			keys.add(k);
-			values.add(get(k));
+	public boolean isShared() {
+		return _shared;
+	}
+	
+	/**
+	 * Stop this AttributeMap from changing so it can be shared between nodes. It is indexed now, so that reading
+	 * it never changes it either.
+	 */
+	void share() {
+		if(_shared) {
+			return;
 		}
-		return new AttributeMap(keys, values);
+		if(_keys.size() > INDEX_THRESHOLD && _indexed != _keys.size()) {
+			reindex();
+		}
+		_keys = Collections.unmodifiableList(_keys);
+		_values = Collections.unmodifiableList(_values);
+		_shared = true;
+	}
+	
+	private void checkShared() {
+		if(_shared) {
+			throw new TXMLException("Cannot change a shared AttributeMap, clone it first");
+		}
+	}
+	
+	/**
+	 * Create a indentical clone of this AttributeMap. The clone is never shared.
+	 */
+	public AttributeMap clone() {
+		AttributeMap clone = new AttributeMap();
+		clone._keys.addAll(_keys);
+		clone._values.addAll(_values);
+		return clone;
 	}
 	
 	/**
 	 * Return the String representation of this AttributeMap. Key and value pairs are represented by the string
-	 * {@code key="value"}
+	 * {@code key="value"}, with {@code & < > "} in values escaped
 	 */
 	public String toString() {
-		String str = "";
-		for(String k : _keys) {
-			str += k + "=\"" + get(k) + "\" ";
+		StringBuilder sb = new StringBuilder();
+		try {
+			writeTo(sb);
+		} catch (IOException e) {
+			throw new TXMLException(e);
+		}
+		return sb.toString().trim();
+	}
+	
+	/**
+	 * Write the key and value pairs of this AttributeMap, in the format of {@code toString()}. Values are
+	 * escaped as they are written
+	 * @param out Where to write to
+	 * @throws IOException If the Appendable throws an IOException
+	 */
+	void writeTo(Appendable out) throws IOException {
+		for(int i = 0; i < _keys.size(); i++) {
+			if(i > 0) {
+				out.append(' ');
+			}
+			out.append(_keys.get(i)).append("=\"");
+			XMLEscaper.writeAttribute(out, _values.get(i));
+			out.append('"');
+		}
+	}
+	
+	/**
+	 * The lists returned by {@code getKeys()} and {@code getValues()}. Replacing a key discards the hash index,
+	 * so it is rebuilt the next time it is needed.
+	 */
+	private class EntryList extends AbstractList<String> implements RandomAccess {
+		
+		private boolean	_isKeys;
+		
+		EntryList(boolean keys) {
+			_isKeys = keys;
+		}
+		
+		@Override
+		public String get(int index) {
+			return _isKeys ? _keys.get(index) : _values.get(index);
+		}
+		
+		@Override
+		public int size() {
+			return _keys.size();
+		}
+		
+		@Override
+		public String set(int index, String element) {
+			checkShared();
+			if(!_isKeys) {
+				return _values.set(index, element);
+			}
+			_indexed = -1;
+			return _keys.set(index, element);
 		}
-		return str.trim();
+		
 	}
 	
 }
@@ -0,0 +1,366 @@
+package com.kill3rtaco.txml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Writes and reads binary snapshots of nodes. A snapshot is laid out as:
+ * <pre>
+ * 'T' 'X' 'M' 'L' version
+ * string count, then each string
+ * top-level node count, then each node
+ * </pre>
+ * where a node is its name, its flags (whether it ends itself, whether it has text), its text if it has any,
+ * its attribute count and each attribute's name and value in order, then its child count and each child. Every
+ * number is an unsigned varint, seven bits to a byte with the high bit set on all but the last. Names, values
+ * and text are each kept once in the string table and referred to by their place in it plus one, with 0 for
+ * null. Strings are their length in chars followed by each char in one to three bytes as in modified UTF-8, so
+ * any String is kept exactly.
+ * <p>
+ * Everything is read in order from a single buffer, so a snapshot is loaded straight from a memory-mapped file.
+ * @author KILL3RTACO
+ *
+ */
+class BinaryFormat {
+
+	private static final byte[]	MAGIC		= {'T', 'X', 'M', 'L'};
+	private static final int	VERSION		= 1;
+
+	// Node flags
+	private static final int	SELF_ENDING	= 1;
+	private static final int	HAS_TEXT	= 2;
+
+	private OutputStream		_out;
+	private byte[]				_buffer;
+	private int					_size;
+	private Map<String, Integer>	_strings;
+
+	private BinaryFormat(OutputStream out) {
+		_out = out;
+		_buffer = new byte[65536];
+		_strings = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Write a snapshot of the given nodes. The stream is flushed, but not closed.
+	 * @param nodes The nodes to write
+	 * @param out The stream to write to
+	 * @throws TXMLException If the stream throws an IOException
+	 */
+	public static void write(List<XMLNode> nodes, OutputStream out) {
+		try {
+			new BinaryFormat(out).writeSnapshot(nodes);
+			out.flush();
+		} catch (IOException e) {
+			throw new TXMLException(e);
+		}
+	}
+
+	private void writeSnapshot(List<XMLNode> nodes) throws IOException {
+		List<String> table = new ArrayList<String>();
+		Deque<Iterator<XMLNode>> open = new ArrayDeque<Iterator<XMLNode>>();
+		open.push(nodes.iterator());
+		while (!open.isEmpty()) {
+			if(!open.peek().hasNext()) {
+				open.pop();
+				continue;
+			}
+			XMLNode node = open.peek().next();
+			node.load();
+			intern(node.name(), table);
+			AttributeMap attributes = node._attributes;
+			for(String key : attributes.getKeys()) {
+				intern(key, table);
+			}
+			for(String value : attributes.getValues()) {
+				intern(value, table);
+			}
+			if(node.hasText()) {
+				intern(node.text(), table);
+			}
+			open.push(node._nodes.iterator());
+		}
+
+		for(byte b : MAGIC) {
+			writeByte(b);
+		}
+		writeByte(VERSION);
+		writeVarint(table.size());
+		for(String s : table) {
+			writeString(s);
+		}
+		writeVarint(nodes.size());
+		open.push(nodes.iterator());
+		while (!open.isEmpty()) {
+			if(!open.peek().hasNext()) {
+				open.pop();
+				continue;
+			}
+			XMLNode node = open.peek().next();
+			boolean text = node.hasText();
+			writeVarint(ref(node.name()));
+			writeVarint((node.isSelfEnding() ? SELF_ENDING : 0) | (text ? HAS_TEXT : 0));
+			if(text) {
+				writeVarint(ref(node.text()));
+			}
+			AttributeMap attributes = node._attributes;
+			List<String> keys = attributes.getKeys();
+			List<String> values = attributes.getValues();
+			writeVarint(keys.size());
+			for(int i = 0; i < keys.size(); i++) {
+				writeVarint(ref(keys.get(i)));
+				writeVarint(ref(values.get(i)));
+			}
+			writeVarint(node._nodes.size());
+			open.push(node._nodes.iterator());
+		}
+		_out.write(_buffer, 0, _size);
+	}
+
+	private void intern(String s, List<String> table) {
+		if(s != null && !_strings.containsKey(s)) {
+			_strings.put(s, table.size());
+			table.add(s);
+		}
+	}
+
+	private int ref(String s) {
+		return s == null ? 0 : _strings.get(s) + 1;
+	}
+
+	private void writeByte(int b) throws IOException {
+		if(_size == _buffer.length) {
+			_out.write(_buffer, 0, _size);
+			_size = 0;
+		}
+		_buffer[_size++] = (byte) b;
+	}
+
+	private void writeVarint(int n) throws IOException {
+		while ((n & ~0x7F) != 0) {
+			writeByte(n & 0x7F | 0x80);
+			n >>>= 7;
+		}
+		writeByte(n);
+	}
+
+	private void writeString(String s) throws IOException {
+		writeVarint(s.length());
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(c != 0 && c < 0x80) {
+				writeByte(c);
+			} else if(c < 0x800) {
+				writeByte(0xC0 | c >> 6);
+				writeByte(0x80 | c & 0x3F);
+			} else {
+				writeByte(0xE0 | c >> 12);
+				writeByte(0x80 | c >> 6 & 0x3F);
+				writeByte(0x80 | c & 0x3F);
+			}
+		}
+	}
+
+	/**
+	 * Read a snapshot from a stream, which is closed once it has been read
+	 * @param in The stream to read
+	 * @return The nodes of the snapshot
+	 * @throws TXMLException If the stream could not be read or does not hold a snapshot
+	 */
+	public static List<XMLNode> read(InputStream in) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			byte[] buffer = new byte[65536];
+			for(int n; (n = in.read(buffer)) >= 0;) {
+				bytes.write(buffer, 0, n);
+			}
+		} catch (IOException e) {
+			throw new TXMLException(e);
+		} finally {
+			TXML.close(in);
+		}
+		return read(ByteBuffer.wrap(bytes.toByteArray()));
+	}
+
+	/**
+	 * Read a snapshot from a file, which is memory-mapped
+	 * @param path The file to read
+	 * @return The nodes of the snapshot
+	 * @throws TXMLException If the file could not be read or does not hold a snapshot
+	 */
+	public static List<XMLNode> read(Path path) {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if(channel.size() > Integer.MAX_VALUE) {
+				throw new TXMLException("Snapshot too large to map: " + path);
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			throw new TXMLException(e);
+		}
+		return read(buffer);
+	}
+
+	/**
+	 * Read a snapshot from a buffer
+	 * @throws TXMLException If the buffer does not hold a snapshot
+	 */
+	static List<XMLNode> read(ByteBuffer in) {
+		try {
+			for(byte b : MAGIC) {
+				if(in.get() != b) {
+					throw new TXMLException("Not a TXML snapshot");
+				}
+			}
+			int version = in.get();
+			if(version != VERSION) {
+				throw new TXMLException("Unsupported snapshot version " + version);
+			}
+			int count = readVarint(in);
+			if(count > in.remaining()) {
+				throw new TXMLException("Snapshot is truncated");
+			}
+			String[] strings = new String[count + 1];
+			char[] chars = new char[64];
+			for(int i = 1; i < strings.length; i++) {
+				int length = readVarint(in);
+				if(length > in.remaining()) {
+					throw new TXMLException("Snapshot is truncated");
+				}
+				if(length > chars.length) {
+					chars = new char[Math.max(length, chars.length * 2)];
+				}
+				strings[i] = readString(in, chars, length);
+			}
+			return readNodes(in, strings);
+		} catch (BufferUnderflowException e) {
+			throw new TXMLException("Snapshot is truncated");
+		} catch (IndexOutOfBoundsException e) {
+			throw new TXMLException("Snapshot is corrupt");
+		}
+	}
+
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private static List<XMLNode> readNodes(ByteBuffer in, String[] strings) {
+		boolean[] checked = new boolean[strings.length];
+		int count = readVarint(in);
+		List<XMLNode> nodes = new ArrayList<XMLNode>(Math.min(count, in.remaining()));
+		List<XMLNode>[] lists = new List[16];
+		int[] left = new int[16];
+		int depth = 0;
+		lists[0] = nodes;
+		left[0] = count;
+		while (depth >= 0) {
+			if(left[depth] == 0) {
+				lists[depth--] = null;
+				continue;
+			}
+			left[depth] -= 1;
+			XMLNode node = readNode(in, strings, checked);
+			lists[depth].add(node);
+			int children = readVarint(in);
+			if(children > 0) {
+				node._nodes = new ArrayList<XMLNode>(Math.min(children, in.remaining()));
+				depth += 1;
+				if(depth == lists.length) {
+					lists = Arrays.copyOf(lists, depth * 2);
+					left = Arrays.copyOf(left, depth * 2);
+				}
+				lists[depth] = node._nodes;
+				left[depth] = children;
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * Read a node up to its child count. Names are checked as {@link XMLNode#setName(String)} would the first
+	 * time each is used.
+	 */
+	private static XMLNode readNode(ByteBuffer in, String[] strings, boolean[] checked) {
+		int name = readVarint(in);
+		if(!checked[name]) {
+			XMLNode.checkName(strings[name]);
+			checked[name] = true;
+		}
+		int flags = readVarint(in);
+		XMLNode node = new XMLNode();
+		node._name = strings[name];
+		node._selfEnding = (flags & SELF_ENDING) != 0;
+		node._text = (flags & HAS_TEXT) != 0 ? strings[readVarint(in)] : "";
+		AttributeMap attributes = new AttributeMap();
+		for(int i = readVarint(in); i > 0; i--) {
+			String key = strings[readVarint(in)];
+			attributes.put(key, strings[readVarint(in)]);
+		}
+		node._attributes = attributes;
+		return node;
+	}
+
+	private static String readString(ByteBuffer in, char[] chars, int length) {
+		for(int i = 0; i < length; i++) {
+			int b = in.get() & 0xFF;
+			if(b < 0x80) {
+				chars[i] = (char) b;
+			} else if(b < 0xE0) {
+				chars[i] = (char) ((b & 0x1F) << 6 | in.get() & 0x3F);
+			} else {
+				chars[i] = (char) ((b & 0x0F) << 12 | (in.get() & 0x3F) << 6 | in.get() & 0x3F);
+			}
+		}
+		return new String(chars, 0, length);
+	}
+
+	/**
+	 * Read a varint, which is never negative in a snapshot
+	 * @throws TXMLException If the varint does not fit in a non-negative int
+	 */
+	private static int readVarint(ByteBuffer in) {
+		int n = 0;
+		for(int shift = 0; shift < 32; shift += 7) {
+			int b = in.get();
+			n |= (b & 0x7F) << shift;
+			if(b >= 0) {
+				if(n < 0 || (shift == 28 && b > 0x07)) {
+					break;
+				}
+				return n;
+			}
+		}
+		throw new TXMLException("Snapshot is corrupt");
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.kill3rtaco.txml;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * An XML document that can be read and changed from any number of threads at once. The document is held as a
+ * frozen {@link XMLDocument}, so readers take no locks at all and never wait for writers or each other. Changes
+ * are made by {@link #update(Consumer)}: the change is applied to a clone of the current document, which copies
+ * only the nodes along the paths it changes, and the result is frozen and replaces the document in one step.
+ * Updates are made one at a time, in the order they take the document, so each is atomic and every reader sees
+ * either all of an update or none of it.
+ * <pre>
+ * ConcurrentDocument config = new ConcurrentDocument(new XMLDocument(path));
+ * config.update(doc -&gt; doc.getFirst().setAttribute("timeout", "30"));
+ * String timeout = config.document().getFirst().getAttribute("timeout");
+ * </pre>
+ * @author KILL3RTACO
+ *
+ */
+public class ConcurrentDocument {
+
+	private volatile XMLDocument	_document;
+
+	/**
+	 * Construct an empty ConcurrentDocument
+	 */
+	public ConcurrentDocument() {
+		this(new XMLDocument());
+	}
+
+	/**
+	 * Construct a ConcurrentDocument holding the given document. The document is frozen, and so can no longer
+	 * be changed except through this ConcurrentDocument.
+	 * @param document The document to hold
+	 */
+	public ConcurrentDocument(XMLDocument document) {
+		_document = document.freeze();
+	}
+
+	/**
+	 * Get the document as it is now. The document is frozen, so it never changes, and it can be read for as
+	 * long as needed while updates go on; later updates are seen by calling this again.
+	 * @return The current document
+	 */
+	public XMLDocument document() {
+		return _document;
+	}
+
+	/**
+	 * Read the current document
+	 * @param reader What to read from the document
+	 * @return The result of {@code reader}
+	 */
+	public <T> T read(Function<? super XMLDocument, T> reader) {
+		return reader.apply(_document);
+	}
+
+	/**
+	 * Change the document. {@code editor} is given a clone of the current document to change as it likes,
+	 * which then replaces the current document. If {@code editor} throws, the document is left as it was.
+	 * Nodes taken from {@link #document()} are frozen and cannot be changed, so {@code editor} must find the
+	 * nodes to change in the clone it is given, and must not keep them once it returns.
+	 * @param editor The change to make
+	 * @return The new document
+	 */
+	public synchronized XMLDocument update(Consumer<? super XMLDocument> editor) {
+		XMLDocument document = _document.clone();
+		editor.accept(document);
+		_document = document.freeze();
+		return document;
+	}
+
+	/**
+	 * Add a node to the top level of the document, as {@link XMLContainer#addNode(XMLNode)} does. The node is
+	 * frozen along with the document.
+	 * @param node The node to add
+	 * @return The node added
+	 */
+	public XMLNode addNode(XMLNode node) {
+		update(document -> {
+			document.addNode(node);
+		});
+		return node;
+	}
+
+	/**
+	 * Remove a top-level node from the document
+	 * @param node The node to remove, taken from {@link #document()}
+	 * @return whether the node was removed
+	 */
+	public synchronized boolean remove(XMLNode node) {
+		int index = _document._nodes.indexOf(node);
+		if(index < 0) {
+			return false;
+		}
+		update(document -> {
+			document.nodes().remove(index);
+		});
+		return true;
+	}
+
+	/**
+	 * Convert the current document to a String using the default indentFactor (TXML.INDENT_FACTOR).
+	 * @return the document as a String
+	 */
+	public String toString() {
+		return _document.toString();
+	}
+
+}
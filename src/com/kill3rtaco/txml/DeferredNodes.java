@@ -0,0 +1,107 @@
+package com.kill3rtaco.txml;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.function.Predicate;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The nodes of a container, made the first time they are used. Everything done to this list is passed on to
+ * the list made.
+ * @author KILL3RTACO
+ *
+ */
+abstract class DeferredNodes extends AbstractList<XMLNode> {
+
+	/**
+	 * Get the nodes, making them if they have not been made yet
+	 */
+	abstract List<XMLNode> nodes();
+
+	@Override
+	public XMLNode get(int index) {
+		return nodes().get(index);
+	}
+
+	@Override
+	public int size() {
+		return nodes().size();
+	}
+
+	@Override
+	public XMLNode set(int index, XMLNode node) {
+		return nodes().set(index, node);
+	}
+
+	@Override
+	public void add(int index, XMLNode node) {
+		nodes().add(index, node);
+	}
+
+	@Override
+	public XMLNode remove(int index) {
+		return nodes().remove(index);
+	}
+
+	@Override
+	protected void removeRange(int from, int to) {
+		nodes().subList(from, to).clear();
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		return nodes().remove(o);
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		return nodes().removeAll(c);
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		return nodes().retainAll(c);
+	}
+
+	@Override
+	public boolean removeIf(Predicate<? super XMLNode> filter) {
+		return nodes().removeIf(filter);
+	}
+
+	@Override
+	public void sort(Comparator<? super XMLNode> c) {
+		nodes().sort(c);
+	}
+
+	@Override
+	public Iterator<XMLNode> iterator() {
+		return nodes().iterator();
+	}
+
+	@Override
+	public ListIterator<XMLNode> listIterator(int index) {
+		return nodes().listIterator(index);
+	}
+
+}
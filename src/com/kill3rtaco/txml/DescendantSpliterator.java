@@ -0,0 +1,196 @@
+package com.kill3rtaco.txml;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A Spliterator over the nodes below a container, in document order. The walk is kept as a stack of sibling
+ * ranges, the outermost at the bottom. Splitting hands the front half of the outermost range that has more
+ * than one node left, together with everything nested above it, to a new Spliterator, so work is divided by
+ * whole subtrees and neither half has to walk the other's nodes.
+ * @author KILL3RTACO
+ *
+ */
+class DescendantSpliterator implements Spliterator<XMLNode> {
+
+	private XMLNode				_pending;
+	private List<XMLNode>[]		_lists;
+	private int[]				_lo, _hi;
+	private int					_top;
+	private long				_estimate;
+
+	/**
+	 * Create a Spliterator over the given nodes and everything they contain
+	 * @param first A node to report before the others, or null. Its children should be the given nodes
+	 * @param nodes The nodes to walk
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	public DescendantSpliterator(XMLNode first, List<XMLNode> nodes) {
+		_pending = first;
+		_lists = new List[16];
+		_lo = new int[16];
+		_hi = new int[16];
+		_top = -1;
+		_estimate = Long.MAX_VALUE;
+		push(nodes, 0, nodes.size());
+	}
+
+	private DescendantSpliterator(XMLNode pending, List<XMLNode>[] lists, int[] lo, int[] hi, int top,
+			long estimate) {
+		_pending = pending;
+		_lists = lists;
+		_lo = lo;
+		_hi = hi;
+		_top = top;
+		_estimate = estimate;
+	}
+
+	private void push(List<XMLNode> nodes, int lo, int hi) {
+		_top += 1;
+		if(_top == _lists.length) {
+			_lists = Arrays.copyOf(_lists, _top * 2);
+			_lo = Arrays.copyOf(_lo, _top * 2);
+			_hi = Arrays.copyOf(_hi, _top * 2);
+		}
+		_lists[_top] = nodes;
+		_lo[_top] = lo;
+		_hi[_top] = hi;
+	}
+
+	/**
+	 * Take the next node, opening its children as the new top range. The pending node's children are already
+	 * open.
+	 */
+	private XMLNode take() {
+		XMLNode node = _pending;
+		if(node != null) {
+			_pending = null;
+			return node;
+		}
+		while (_top >= 0 && _lo[_top] == _hi[_top]) {
+			_lists[_top--] = null;
+		}
+		if(_top < 0) {
+			return null;
+		}
+		node = _lists[_top].get(_lo[_top]++);
+		if(!node._nodes.isEmpty()) {
+			push(node._nodes, 0, node._nodes.size());
+		}
+		return node;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super XMLNode> action) {
+		XMLNode node = take();
+		if(node == null) {
+			return false;
+		}
+		action.accept(node);
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super XMLNode> action) {
+		for(XMLNode node; (node = take()) != null;) {
+			action.accept(node);
+		}
+	}
+
+	@Override
+	public Spliterator<XMLNode> trySplit() {
+		for(;;) {
+			compact();
+			int level = 0;
+			while (level <= _top && _hi[level] - _lo[level] < 2) {
+				level++;
+			}
+			if(level <= _top) {
+				int mid = (_lo[level] + _hi[level]) >>> 1;
+				DescendantSpliterator prefix = split(level, level);
+				prefix._hi[0] = mid;
+				_lo[level] = mid;
+				return prefix;
+			} else if(_top > 0 || (_top == 0 && _pending != null)) {
+
+				// Every range has one node left, and the outermost comes last
+				return split(1, 0);
+			} else if(_top == 0 && !_lists[0].get(_lo[0])._nodes.isEmpty()) {
+
+				// A single node is left: step into its children
+				_pending = take();
+			} else {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Move the pending node and the ranges from the given level up into a new Spliterator, which comes first
+	 * @param top The top range this Spliterator keeps
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private DescendantSpliterator split(int level, int top) {
+		int depth = _top - level + 1;
+		List<XMLNode>[] lists = new List[depth + 16];
+		int[] lo = new int[depth + 16];
+		int[] hi = new int[depth + 16];
+		System.arraycopy(_lists, level, lists, 0, depth);
+		System.arraycopy(_lo, level, lo, 0, depth);
+		System.arraycopy(_hi, level, hi, 0, depth);
+		Arrays.fill(_lists, top + 1, _top + 1, null);
+		_top = top;
+		_estimate >>>= 1;
+		DescendantSpliterator prefix = new DescendantSpliterator(_pending, lists, lo, hi, depth - 1, _estimate);
+		_pending = null;
+		return prefix;
+	}
+
+	/**
+	 * Remove the ranges that have no nodes left
+	 */
+	private void compact() {
+		int top = -1;
+		for(int i = 0; i <= _top; i++) {
+			if(_lo[i] < _hi[i]) {
+				top += 1;
+				_lists[top] = _lists[i];
+				_lo[top] = _lo[i];
+				_hi[top] = _hi[i];
+			}
+		}
+		Arrays.fill(_lists, top + 1, _top + 1, null);
+		_top = top;
+	}
+
+	@Override
+	public long estimateSize() {
+		return _estimate;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | NONNULL;
+	}
+
+}
@@ -0,0 +1,254 @@
+package com.kill3rtaco.txml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Represents a read-only container in an {@link IndexedDocument}. This can be either the document itself or an
+ * {@link IndexedNode}, and is read the same way as an {@link XMLContainer}.
+ * @author KILL3RTACO
+ *
+ */
+public abstract class IndexedContainer {
+
+	protected IndexedDocument	_document;
+
+	// The elements below this container, in document order
+	protected int				_first, _end;
+
+	IndexedContainer() {
+	}
+
+	/**
+	 * Gets whether this container ends itself (always false for {@link IndexedDocument})
+	 * @return Whether this container ends itself.
+	 */
+	public abstract boolean isSelfEnding();
+
+	/**
+	 * Returns whether this container contains any nodes or not
+	 * @return true if this container has nodes
+	 */
+	public boolean hasNodes() {
+		return _first < _end;
+	}
+
+	/**
+	 * Gets whether this container is empty or not
+	 * @return true if this container has no nodes
+	 */
+	public boolean isEmpty() {
+		return _first == _end;
+	}
+
+	/**
+	 * Gets the amount of nodes in this container
+	 * @return the amount of top-level nodes in this container
+	 */
+	public int size() {
+		int size = 0;
+		for(int i = _first; i < _end; i = _document._ends[i]) {
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * Get a list of top-level nodes in this container
+	 * @return The nodes in this container.
+	 */
+	public List<IndexedNode> nodes() {
+		List<IndexedNode> nodes = new ArrayList<IndexedNode>();
+		for(int i = _first; i < _end; i = _document._ends[i]) {
+			nodes.add(new IndexedNode(_document, i));
+		}
+		return nodes;
+	}
+
+	/**
+	 * Get the first node in this container, or null if this container is empty
+	 * @return The first node
+	 */
+	public IndexedNode getFirst() {
+		if(isEmpty()) {
+			return null;
+		}
+		return new IndexedNode(_document, _first);
+	}
+
+	/**
+	 * Get the top-level node at the given index
+	 * @param index The index of the node
+	 * @return The node, or null if there is no node at the index
+	 */
+	public IndexedNode get(int index) {
+		if(index < 0) {
+			return null;
+		}
+		for(int i = _first; i < _end; i = _document._ends[i]) {
+			if(index-- == 0) {
+				return new IndexedNode(_document, i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get a list of top-level nodes whose name {@code equals()} the given name.
+	 * @param name The name to look for.
+	 * @return a list of top-level nodes whose name equal the given name.
+	 */
+	public List<IndexedNode> get(String name) {
+		List<IndexedNode> nodes = new ArrayList<IndexedNode>();
+		int symbol = _document.symbol(name);
+		if(symbol < 0) {
+			return nodes;
+		}
+		for(int i = _first; i < _end; i = _document._ends[i]) {
+			if(_document.nameOf(i) == symbol) {
+				nodes.add(new IndexedNode(_document, i));
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * Get a list of top-level nodes whose name matches any of the given names
+	 * @param names The names of the nodes to get
+	 * @return A list of nodes
+	 */
+	public List<IndexedNode> get(List<String> names) {
+		List<IndexedNode> nodes = new ArrayList<IndexedNode>();
+		for(int i = _first; i < _end; i = _document._ends[i]) {
+			if(names.contains(_document.name(i))) {
+				nodes.add(new IndexedNode(_document, i));
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * Get a list of top-level nodes in this container with the given attributes.
+	 * @param attributes The attributes to test for.
+	 * @param strict If true, nodes must have all the attributes given, otherwise nodes may have one of any of the
+	 * attributes given.
+	 * @return A list of nodes
+	 */
+	public List<IndexedNode> get(List<String> attributes, boolean strict) {
+		return withAttributes(nodes(), attributes, strict);
+	}
+
+	/**
+	 * Get a list of top-level nodes in this container that have the given attributes and their values.
+	 * @param attributes The attributes to look for
+	 * @param strict If true, nodes must have all key and value pairs, otherwise nodes may have one key and value
+	 * pair in the given map
+	 * @return A list of nodes
+	 */
+	public List<IndexedNode> get(Map<String, String> attributes, boolean strict) {
+		return withAttributes(nodes(), attributes, strict);
+	}
+
+	/**
+	 * Get a list of top-level nodes whose name equals the given name, and that have the given attributes.
+	 * @param name The name of the nodes to get
+	 * @param attributes The attributes to test for
+	 * @param strict If true, nodes must have all the attributes given, otherwise they may have any one of them
+	 * @return A list of nodes
+	 */
+	public List<IndexedNode> get(String name, List<String> attributes, boolean strict) {
+		return withAttributes(get(name), attributes, strict);
+	}
+
+	/**
+	 * Get a list of top-level nodes whose name matches any of the given names, and that have the given
+	 * attributes.
+	 * @param names The names of the nodes to get
+	 * @param attributes The attributes to test for
+	 * @param strict If true, nodes must have all the attributes given, otherwise they may have any one of them
+	 * @return A list of nodes
+	 */
+	public List<IndexedNode> get(List<String> names, List<String> attributes, boolean strict) {
+		return withAttributes(get(names), attributes, strict);
+	}
+
+	/**
+	 * Get a list of top-level nodes whose name matches any of the given names, and that have the given
+	 * attributes and their values.
+	 * @param names The names of the nodes to get
+	 * @param attributes The attributes to look for
+	 * @param strict If true, nodes must have all key and value pairs, otherwise nodes may have one key and value
+	 * pair in the given map
+	 * @return A list of nodes
+	 */
+	public List<IndexedNode> get(List<String> names, Map<String, String> attributes, boolean strict) {
+		return withAttributes(get(names), attributes, strict);
+	}
+
+	private static List<IndexedNode> withAttributes(List<IndexedNode> nodes, List<String> attributes,
+			boolean strict) {
+		List<IndexedNode> list = new ArrayList<IndexedNode>();
+		for(IndexedNode n : nodes) {
+			if(n.hasAttributes(attributes, strict)) {
+				list.add(n);
+			}
+		}
+		return list;
+	}
+
+	private static List<IndexedNode> withAttributes(List<IndexedNode> nodes, Map<String, String> attributes,
+			boolean strict) {
+		List<IndexedNode> list = new ArrayList<IndexedNode>();
+		for(IndexedNode n : nodes) {
+			if(n.hasAttributes(attributes, strict)) {
+				list.add(n);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Get a list of top-level nodes whose name equals the given name, and that have the given attributes and
+	 * their values.
+	 * @param name The name of the nodes to get
+	 * @param attributes The attributes to look for
+	 * @param strict If true, nodes must have all key and value pairs, otherwise nodes may have one key and value
+	 * pair in the given map
+	 * @return A list of nodes
+	 */
+	public List<IndexedNode> get(String name, Map<String, String> attributes, boolean strict) {
+		return withAttributes(get(name), attributes, strict);
+	}
+
+	/**
+	 * Get a Stream of every node below this container, in document order. The nodes are numbered in document
+	 * order within the document, so the Stream splits evenly for parallel use.
+	 * @return The descendants of this container
+	 */
+	public Stream<IndexedNode> descendants() {
+		final IndexedDocument document = _document;
+		return IntStream.range(_first, _end).mapToObj(i -> new IndexedNode(document, i));
+	}
+
+}
@@ -0,0 +1,314 @@
+package com.kill3rtaco.txml;
+
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A read-only XML document that keeps its source and an index into it rather than a tree of objects. Each
+ * element name, attribute name, attribute value and text is a token, stored as its type and depth packed into
+ * an int and its offset and length in the source packed into a long; names are kept once each and referred to
+ * by number. Elements are numbered in document order, and each records the number after its last descendant
+ * and the number of its parent, so children are found by skipping from one sibling to the next and a parent is
+ * found at once. {@link IndexedNode}s are made as they are
+ * navigated to and hold nothing but their number, and attribute values and text are read from the source when
+ * asked for. The document never changes once built, and {@link #toXMLDocument()} makes a mutable copy.
+ * <p>
+ * The source is read by {@link XMLCursor}, so a document is accepted or rejected exactly as by
+ * {@link TXML#parseXML(String)}, and reads the same.
+ * @author KILL3RTACO
+ *
+ */
+public class IndexedDocument extends IndexedContainer {
+
+	// Token types
+	static final int			ELEMENT			= 0;
+	static final int			ATTRIBUTE_NAME	= 1;
+	static final int			ATTRIBUTE_VALUE	= 2;
+	static final int			TEXT			= 3;
+
+	// Token info: the type in the low bits, then whether an element ends itself, then the depth
+	private static final int	TYPE_MASK		= 3;
+	private static final int	SELF_ENDING		= 4;
+	private static final int	DEPTH_SHIFT		= 3;
+
+	char[]						_chars;
+	String[]					_names;
+	private Map<String, Integer>	_symbols;
+	int[]						_info;
+	long[]						_ranges;
+	int							_tokens;
+
+	// For each element, its first token, the number of the element after its last descendant, and the number
+	// of its parent (or -1)
+	int[]						_elements;
+	int[]						_ends;
+	int[]						_parents;
+
+	/**
+	 * Construct an IndexedDocument from a source string
+	 * @param source The source string to use
+	 * @throws TXMLException If the source is not well formed
+	 */
+	public IndexedDocument(String source) {
+		this(source.toCharArray(), source.length());
+	}
+
+	/**
+	 * Constructs an IndexedDocument from a file, which is decoded into memory and kept there
+	 * @param path The file to read
+	 * @param charset The charset the file is encoded in
+	 * @throws TXMLException If the file could not be read or is not well formed
+	 */
+	public IndexedDocument(Path path, Charset charset) {
+		this(TXML.decode(path, charset));
+	}
+
+	private IndexedDocument(CharBuffer chars) {
+		this(chars.array(), chars.limit());
+	}
+
+	private IndexedDocument(char[] chars, int length) {
+		_document = this;
+		_chars = chars;
+		_names = new String[16];
+		_symbols = new HashMap<String, Integer>();
+		_info = new int[256];
+		_ranges = new long[256];
+		_elements = new int[64];
+		_ends = new int[64];
+		_parents = new int[64];
+		int elements = index(length);
+		_info = Arrays.copyOf(_info, _tokens);
+		_ranges = Arrays.copyOf(_ranges, _tokens);
+		_elements = Arrays.copyOf(_elements, elements);
+		_ends = Arrays.copyOf(_ends, elements);
+		_parents = Arrays.copyOf(_parents, elements);
+		_names = Arrays.copyOf(_names, _symbols.size());
+		_first = 0;
+		_end = elements;
+	}
+
+	/**
+	 * Read the source, adding a token for everything the tree model holds
+	 * @return The number of elements
+	 */
+	private int index(int length) {
+		XMLTokener x = new XMLTokener(_chars, 0, length);
+		XMLCursor cursor = new XMLCursor(x);
+		Set<String> checked = new HashSet<String>();
+		int[] open = new int[16];
+		int elements = 0;
+		int textStart = -1, textEnd = -1;
+		for(;;) {
+			switch(cursor.next()) {
+				case XMLCursor.START_ELEMENT:
+					int depth = cursor.depth() - 1;
+					if(depth == open.length) {
+						open = Arrays.copyOf(open, depth * 2);
+					}
+					if(elements == _elements.length) {
+						_elements = Arrays.copyOf(_elements, elements * 2);
+						_ends = Arrays.copyOf(_ends, elements * 2);
+						_parents = Arrays.copyOf(_parents, elements * 2);
+					}
+					if(checked.add(cursor.name())) {
+						XMLNode.checkName(cursor.name());
+					}
+					open[depth] = elements;
+					_parents[elements] = depth > 0 ? open[depth - 1] : -1;
+					_elements[elements++] = _tokens;
+					add(ELEMENT, depth, intern(cursor.name()), 0);
+					break;
+				case XMLCursor.ATTRIBUTE:
+					depth = cursor.depth() - 1;
+					add(ATTRIBUTE_NAME, depth, intern(cursor.attributeName()), 0);
+					String value = cursor.attributeValue();
+					if(value.isEmpty()) {
+						add(ATTRIBUTE_VALUE, depth, 0, 0);
+						break;
+					}
+					int end = x.position();
+					char c = _chars[end - 1];
+					int start;
+					if(c == '"' || c == '\'') {
+						start = end - 2;
+						while (_chars[start] != c) {
+							start--;
+						}
+					} else {
+
+// An unquoted value, read as a name along with the space after it
+
+						if(Character.isWhitespace(c)) {
+							end -= 1;
+						}
+						start = end - value.length();
+					}
+					add(ATTRIBUTE_VALUE, depth, start, end - start);
+					break;
+				case XMLCursor.TEXT:
+					textStart = cursor.textStart();
+					textEnd = x.position();
+					break;
+				case XMLCursor.END_ELEMENT:
+					depth = cursor.depth() - 1;
+					int element = open[depth];
+					if(textStart >= 0) {
+						add(TEXT, depth, textStart, textEnd - textStart);
+						textStart = -1;
+					}
+					if(cursor.isSelfEnding()) {
+						_info[_elements[element]] |= SELF_ENDING;
+					}
+					_ends[element] = elements;
+					break;
+				case XMLCursor.END_DOCUMENT:
+					return elements;
+			}
+		}
+	}
+
+	private void add(int type, int depth, int offset, int length) {
+		if(_tokens == _info.length) {
+			_info = Arrays.copyOf(_info, _tokens * 2);
+			_ranges = Arrays.copyOf(_ranges, _tokens * 2);
+		}
+		_info[_tokens] = type | depth << DEPTH_SHIFT;
+		_ranges[_tokens] = (long) offset << 32 | length;
+		_tokens++;
+	}
+
+	private int intern(String name) {
+		Integer symbol = _symbols.get(name);
+		if(symbol == null) {
+			symbol = _symbols.size();
+			if(symbol == _names.length) {
+				_names = Arrays.copyOf(_names, symbol * 2);
+			}
+			_names[symbol] = name;
+			_symbols.put(name, symbol);
+		}
+		return symbol;
+	}
+
+	/**
+	 * Get the number a name is referred to by
+	 * @return The number, or -1 if no element or attribute has the name
+	 */
+	int symbol(String name) {
+		Integer symbol = _symbols.get(name);
+		return symbol == null ? -1 : symbol;
+	}
+
+	int type(int token) {
+		return _info[token] & TYPE_MASK;
+	}
+
+	int depth(int token) {
+		return _info[token] >>> DEPTH_SHIFT;
+	}
+
+	int offset(int token) {
+		return (int) (_ranges[token] >>> 32);
+	}
+
+	int length(int token) {
+		return (int) _ranges[token];
+	}
+
+	/**
+	 * Get the number of the name of an element
+	 */
+	int nameOf(int element) {
+		return offset(_elements[element]);
+	}
+
+	String name(int element) {
+		return _names[nameOf(element)];
+	}
+
+	boolean isSelfEnding(int element) {
+		return (_info[_elements[element]] & SELF_ENDING) != 0;
+	}
+
+	/**
+	 * Read the value of an attribute value token from the source
+	 */
+	String value(int token) {
+		int offset = offset(token);
+		int length = length(token);
+		if(length == 0) {
+			return "";
+		}
+		char c = _chars[offset];
+		if(c != '"' && c != '\'') {
+			return new String(_chars, offset, length);
+		}
+		for(int i = offset + 1; i < offset + length - 1; i++) {
+			if(_chars[i] == '&') {
+				return (String) new XMLTokener(_chars, offset, offset + length, null).nextToken();
+			}
+		}
+		return new String(_chars, offset + 1, length - 2);
+	}
+
+	/**
+	 * Read the text of a text token from the source
+	 */
+	String text(int token) {
+		int offset = offset(token);
+		return new XMLTokener(_chars, offset, offset + length(token), null).nextContent().toString();
+	}
+
+	@Override
+	public boolean isSelfEnding() {
+		return false;
+	}
+
+	/**
+	 * Make a mutable copy of this document
+	 * @return An XMLDocument holding the same nodes
+	 */
+	public XMLDocument toXMLDocument() {
+		List<XMLNode> nodes = new ArrayList<XMLNode>();
+		for(int i = 0; i < _end; i = _ends[i]) {
+			nodes.add(new IndexedNode(this, i).toXMLNode());
+		}
+		return new XMLDocument(nodes);
+	}
+
+	/**
+	 * Convert this document to a String using the default indentFactor (TXML.INDENT_FACTOR).
+	 * @return this as a string
+	 */
+	public String toString() {
+		return toXMLDocument().toString();
+	}
+
+}
@@ -0,0 +1,272 @@
+package com.kill3rtaco.txml;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Represents a node in an {@link IndexedDocument}, and is read the same way as an {@link XMLNode}. An
+ * IndexedNode holds only its document and its number within it, so any number of them may be made for the same
+ * node; they are equal to each other.
+ * @author KILL3RTACO
+ *
+ */
+public class IndexedNode extends IndexedContainer {
+
+	private int	_index;
+
+	IndexedNode(IndexedDocument document, int index) {
+		_document = document;
+		_index = index;
+		_first = index + 1;
+		_end = document._ends[index];
+	}
+
+	/**
+	 * Get the name of this node. For instance, in the node representing {@code <node bleep="bloop"/>}, the
+	 * name would be 'node'
+	 * @return the name of this node.
+	 */
+	public String name() {
+		return _document.name(_index);
+	}
+
+	/**
+	 * Get whether this node ends itself or not (ex. <rt bleep="bloop"/>)
+	 * @return Whether this node ends itself or not
+	 */
+	@Override
+	public boolean isSelfEnding() {
+		return _document.isSelfEnding(_index);
+	}
+
+	/**
+	 * Get how many elements this node is nested within
+	 * @return 0 for a top-level node
+	 */
+	public int depth() {
+		return _document.depth(_document._elements[_index]);
+	}
+
+	/**
+	 * Get the node this node is contained within
+	 * @return The parent node, or null if this is a top-level node
+	 */
+	public IndexedNode parent() {
+		int parent = _document._parents[_index];
+		return parent < 0 ? null : new IndexedNode(_document, parent);
+	}
+
+	/**
+	 * Get a copy of all the attributes for this node, in the order they were written
+	 * @return This nodes attributes
+	 */
+	public AttributeMap attributes() {
+		AttributeMap attributes = new AttributeMap();
+		for(int t = _document._elements[_index] + 1; isAttribute(t); t += 2) {
+			attributes.put(_document._names[_document.offset(t)], _document.value(t + 1));
+		}
+		return attributes;
+	}
+
+	/**
+	 * Get the value of an attribute
+	 * @param attribute The attribute value to get
+	 * @return The value of the given attribute, or null if this node does not have it
+	 */
+	public String getAttribute(String attribute) {
+		int t = attribute(attribute);
+		return t < 0 ? null : _document.value(t + 1);
+	}
+
+	/**
+	 * Test whether this node has the given attribute or not.
+	 * @param attr The attribute to test for
+	 * @return Whether this node has the given attribute or not.
+	 */
+	public boolean hasAttribute(String attr) {
+		return attribute(attr) >= 0;
+	}
+
+	/**
+	 * Test whether or not this node has the given attribute/value pair
+	 * @param attribute The attribute to test
+	 * @param value The value of the attribute to test
+	 * @return true if this node has the attribute value pair
+	 */
+	public boolean hasAttribute(String attribute, String value) {
+		if(hasAttribute(attribute)) {
+			return getAttribute(attribute).equals(value);
+		}
+		return false;
+	}
+
+	/**
+	 * Test whether this node has the given attributes or not, the same as
+	 * {@link XMLNode#hasAttributes(List, boolean)}
+	 * @param attrs The attributes to test for.
+	 * @param strict If true, this node must have all the attributes given to return true
+	 * @return whether this node has the given attributes or not.
+	 */
+	public boolean hasAttributes(List<String> attrs, boolean strict) {
+		for(String a : attrs) {
+			if(strict) {
+				if(!hasAttribute(a)) {
+					return false;
+				}
+			} else if(hasAttribute(a)) {
+				break;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Test whether this node has the given attribute/value pairs, the same as
+	 * {@link XMLNode#hasAttributes(Map, boolean)}
+	 * @param attributes The attributes and values to test for
+	 * @param strict If true, this node must have every pair given to return true
+	 * @return whether this node has the given attribute/value pairs or not.
+	 */
+	public boolean hasAttributes(Map<String, String> attributes, boolean strict) {
+		for(String k : attributes.keySet()) {
+			String v = attributes.get(k);
+			if(strict) {
+				if(!getAttribute(k).equals(v)) {
+					return false;
+				}
+			} else if(getAttribute(k).equals(v)) {
+				break;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Find the last token naming the given attribute, as the last value written is the one kept
+	 * @return The token, or -1
+	 */
+	private int attribute(String attribute) {
+		int symbol = _document.symbol(attribute);
+		int found = -1;
+		if(symbol >= 0) {
+			for(int t = _document._elements[_index] + 1; isAttribute(t); t += 2) {
+				if(_document.offset(t) == symbol) {
+					found = t;
+				}
+			}
+		}
+		return found;
+	}
+
+	private boolean isAttribute(int token) {
+		return token < _document._tokens && _document.type(token) == IndexedDocument.ATTRIBUTE_NAME;
+	}
+
+	/**
+	 * Get the text contained within this node
+	 * @return the text contained within this node
+	 */
+	public String text() {
+		int t = textToken();
+		return t < 0 ? "" : _document.text(t);
+	}
+
+	/**
+	 * Check if this node contains any text
+	 * @return true if and only if {@code text().isEmpty()}
+	 */
+	public boolean hasText() {
+		return textToken() >= 0;
+	}
+
+	private int textToken() {
+		int t = _document._elements[_index] + 1;
+		while (isAttribute(t)) {
+			t += 2;
+		}
+		return t < _document._tokens && _document.type(t) == IndexedDocument.TEXT ? t : -1;
+	}
+
+	/**
+	 * Get a Stream of this node followed by every node below it, in document order
+	 * @return This node and its descendants
+	 */
+	public Stream<IndexedNode> descendantsOrSelf() {
+		final IndexedDocument document = _document;
+		return IntStream.range(_index, _end).mapToObj(i -> new IndexedNode(document, i));
+	}
+
+	/**
+	 * Make a mutable copy of this node and everything it contains
+	 * @return An XMLNode the same as the one parsed from this node's source
+	 */
+	public XMLNode toXMLNode() {
+		Deque<XMLNode> open = new ArrayDeque<XMLNode>();
+		Deque<Integer> ends = new ArrayDeque<Integer>();
+		XMLNode root = null;
+		for(int i = _index; i < _end; i++) {
+			IndexedNode n = new IndexedNode(_document, i);
+			while (!ends.isEmpty() && ends.peek() <= i) {
+				ends.pop();
+				open.pop();
+			}
+			XMLNode node = new XMLNode(n.name(), n.attributes());
+			if(n.hasText()) {
+				node.setText(n.text());
+			}
+			if(n.isSelfEnding()) {
+				node.setSelfEnding(true);
+			}
+			if(root == null) {
+				root = node;
+			} else {
+				open.peek().addNode(node);
+			}
+			open.push(node);
+			ends.push(n._end);
+		}
+		return root;
+	}
+
+	/**
+	 * Convert this node to a String using the default indentFactor (TXML.INDENT_FACTOR).
+	 * @return this as a String
+	 */
+	public String toString() {
+		return toXMLNode().toString();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof IndexedNode && ((IndexedNode) o)._document == _document
+				&& ((IndexedNode) o)._index == _index;
+	}
+
+	@Override
+	public int hashCode() {
+		return _index;
+	}
+
+}
@@ -0,0 +1,332 @@
+package com.kill3rtaco.txml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The children of a lazily parsed node. Until it is first used, the list only knows where its node lies in the
+ * source. Using it, or the node's attributes or text, reads the node's start tag and content: the attributes and
+ * text are set, and each child element becomes another lazily parsed node, found by matching start and end tags
+ * without reading their names or attributes. The list stays in the node and passes everything on to the children
+ * read, so that any thread using the node sees everything the read set.
+ * @author KILL3RTACO
+ *
+ */
+class LazyNodes extends DeferredNodes {
+
+	private XMLNode				_node;
+	private int					_start, _end;
+
+	// The Source until the node has been read, then the list of its children
+	private volatile Object		_state;
+
+	private LazyNodes(Source source, int start, int end) {
+		_state = source;
+		_start = start;
+		_end = end;
+	}
+
+	/**
+	 * Get the top-level elements of a source as lazily parsed nodes. Everything between them is read as
+	 * {@link TXML#parseXML(XMLTokener)} would, but the elements themselves are only skipped, so a syntax error
+	 * within one is not reported until it is read.
+	 * @param chars The source, which is kept until every node has been read
+	 * @param length How many characters of the source to read
+	 * @return a list of nodes
+	 */
+	public static List<XMLNode> parse(char[] chars, int length) {
+		Source source = new Source(chars);
+		XMLTokener x = new XMLTokener(chars, 0, length, source.symbols);
+		XMLCursor cursor = new XMLCursor(x);
+		List<XMLNode> nodes = new ArrayList<XMLNode>();
+		for(;;) {
+			switch(cursor.next()) {
+				case XMLCursor.START_ELEMENT:
+					nodes.add(source.skip(cursor, x, length));
+					break;
+				case XMLCursor.END_DOCUMENT:
+					return nodes;
+			}
+		}
+	}
+
+	/**
+	 * Read the node's start tag and content, if they have not been read yet. Nodes are read from a source one
+	 * at a time, so separate subtrees may be read from separate threads.
+	 */
+	void load() {
+		Object state = _state;
+		if(state instanceof Source) {
+			synchronized (state) {
+				if(_state == state) {
+					read((Source) state);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the node, setting its attributes and text before its children are published through {@code _state}
+	 */
+	private void read(Source source) {
+		XMLTokener x = new XMLTokener(source.chars, _start, _end, source.symbols);
+		XMLCursor cursor = new XMLCursor(x);
+		cursor.next();
+		AttributeMap attributes = new AttributeMap();
+		cursor.readAttributes(attributes);
+		List<XMLNode> nodes = new ArrayList<XMLNode>();
+		String text = "";
+		for(;;) {
+			switch(cursor.next()) {
+				case XMLCursor.START_ELEMENT:
+					nodes.add(source.skip(cursor, x, _end));
+					break;
+				case XMLCursor.TEXT:
+					text = cursor.text();
+					break;
+				case XMLCursor.END_ELEMENT:
+					_node._attributes = attributes;
+					_node._text = text;
+					_state = nodes;
+					return;
+			}
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	List<XMLNode> nodes() {
+		load();
+		return (List<XMLNode>) _state;
+	}
+
+	/**
+	 * The source shared by the nodes of a document. Reading a node locks it.
+	 * <p>
+	 * Skipping a top-level element finds where every element in it ends in the same pass, so reading a node
+	 * looks its children's ends up instead of scanning each of their subtrees again.
+	 */
+	private static class Source {
+
+		private char[]		chars;
+		private SymbolTable	symbols;
+
+		// Where each element with content starts and ends, in document order
+		private int[]		starts	= new int[16];
+		private int[]		ends	= new int[16];
+		private int			elements;
+
+		Source(char[] chars) {
+			this.chars = chars;
+			this.symbols = new SymbolTable();
+		}
+
+		/**
+		 * Skip the element a cursor has just started
+		 * @param limit Where the element must end by
+		 * @return A lazily parsed node for the element
+		 */
+		XMLNode skip(XMLCursor cursor, XMLTokener x, int limit) {
+			int lt = x.position();
+			while (chars[--lt] != '<') {
+			}
+			int gt = tagEnd(lt, limit);
+			boolean selfEnding = gt >= 0 && endsItself(lt, gt);
+			int end = gt < 0 ? -1 : selfEnding ? gt + 1 : end(lt, gt, limit);
+			if(end < 0) {
+				throw new XMLTokener(chars, lt, limit).syntaxError("Unclosed element '" + cursor.name() + "'");
+			}
+			cursor.skipElement(end);
+			LazyNodes nodes = new LazyNodes(this, lt, end);
+			nodes._node = new XMLNode(cursor.name(), selfEnding, nodes);
+			return nodes._node;
+		}
+
+		/**
+		 * Find the '>' ending the tag that starts at lt, skipping quoted values
+		 * @return Its index, or -1 if it does not end before limit
+		 */
+		private int tagEnd(int lt, int limit) {
+			for(int i = lt + 1; i < limit; i++) {
+				char c = chars[i];
+				if(c == '>') {
+					return i;
+				} else if(c == '"' || c == '\'') {
+					i = indexOf(c, i + 1, limit);
+					if(i < 0) {
+						return -1;
+					}
+				}
+			}
+			return -1;
+		}
+
+		private boolean endsItself(int lt, int gt) {
+			int last = gt - 1;
+			while (last > lt && Character.isWhitespace(chars[last])) {
+				last--;
+			}
+			return chars[last] == '/';
+		}
+
+		/**
+		 * Get where an element with content ends, looking it up if its top-level element has already been skipped
+		 * @param lt The index of the element's start tag
+		 * @param gt The index of the '>' ending its start tag
+		 * @return The index just past the element's end tag, or -1 if it does not end before limit
+		 */
+		private int end(int lt, int gt, int limit) {
+			int element = Arrays.binarySearch(starts, 0, elements, lt);
+			return element >= 0 ? ends[element] : contentEnd(lt, gt + 1, limit);
+		}
+
+		/**
+		 * Start recording where an element ends
+		 * @return The element's number
+		 */
+		private int record(int lt) {
+			if(elements == starts.length) {
+				starts = Arrays.copyOf(starts, elements * 2);
+				ends = Arrays.copyOf(ends, elements * 2);
+			}
+			starts[elements] = lt;
+			ends[elements] = -1;
+			return elements++;
+		}
+
+		/**
+		 * Find the end of an element's content by matching the tags that open and close within it, recording
+		 * where each of them ends
+		 * @param start The index of the element's start tag
+		 * @param i The index just past the element's start tag
+		 * @return The index just past the element's end tag, or -1 if it does not end before limit
+		 */
+		private int contentEnd(int start, int i, int limit) {
+			int[] open = new int[16];
+			int depth = 0;
+			open[depth++] = record(start);
+			while (i >= 0) {
+				int lt = indexOf('<', i, limit);
+				if(lt < 0 || lt + 1 == limit) {
+					return -1;
+				}
+				char c = chars[lt + 1];
+				if(c == '/') {
+
+// Close tag </
+
+					i = indexOf('>', lt + 2, limit);
+					if(i >= 0) {
+						ends[open[--depth]] = i + 1;
+						if(depth == 0) {
+							return i + 1;
+						}
+					}
+				} else if(c == '!') {
+					i = skipBang(lt, limit);
+					continue;
+				} else if(c == '?') {
+					i = indexOf("?>", lt + 2, limit);
+					if(i >= 0) {
+						i += 1;
+					}
+				} else {
+
+// Open tag <
+
+					i = tagEnd(lt, limit);
+					if(i >= 0 && !endsItself(lt, i)) {
+						if(depth == open.length) {
+							open = Arrays.copyOf(open, depth * 2);
+						}
+						open[depth++] = record(lt);
+					}
+				}
+				if(i >= 0) {
+					i += 1;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Skip a comment, CDATA section or declaration starting at i, the same way as {@link TXML#skipBang}
+		 * @return The index after it, or -1 if it does not end before limit
+		 */
+		private int skipBang(int i, int limit) {
+			if(startsWith("<!--", i, limit)) {
+				int end = indexOf("-->", i + 4, limit);
+				return end < 0 ? -1 : end + 3;
+			} else if(startsWith("<![CDATA[", i, limit)) {
+				int end = indexOf("]]>", i + 9, limit);
+				return end < 0 ? -1 : end + 3;
+			}
+			int nesting = 1;
+			for(int j = i + 2; j < limit; j++) {
+				char c = chars[j];
+				if(c == '"' || c == '\'') {
+					j = indexOf(c, j + 1, limit);
+					if(j < 0) {
+						return -1;
+					}
+				} else if(c == '<') {
+					nesting += 1;
+				} else if(c == '>' && --nesting == 0) {
+					return j + 1;
+				}
+			}
+			return -1;
+		}
+
+		private int indexOf(char c, int from, int to) {
+			for(int i = from; i < to; i++) {
+				if(chars[i] == c) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private int indexOf(String s, int from, int to) {
+			for(int i = indexOf(s.charAt(0), from, to); i >= 0; i = indexOf(s.charAt(0), i + 1, to)) {
+				if(startsWith(s, i, to)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private boolean startsWith(String s, int i, int to) {
+			if(i + s.length() > to) {
+				return false;
+			}
+			for(int j = 0; j < s.length(); j++) {
+				if(chars[i + j] != s.charAt(j)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+}
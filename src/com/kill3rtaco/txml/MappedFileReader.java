@@ -0,0 +1,135 @@
+package com.kill3rtaco.txml;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A Reader that decodes a memory-mapped file directly into the caller's buffer. Files too large to be mapped
+ * at once are mapped one region at a time.
+ * @author KILL3RTACO
+ *
+ */
+class MappedFileReader extends Reader {
+
+	/** The largest region of the file that is mapped at once */
+	private static final long	REGION_SIZE	= 1L << 30;
+
+	private FileChannel			_channel;
+	private CharsetDecoder		_decoder;
+	private MappedByteBuffer	_region;
+	private long				_regionStart, _size;
+	private boolean				_flushed;
+	private char[]				_pair;
+	private boolean				_pending;
+
+	/**
+	 * Open the given file for reading
+	 * @param path The file to read
+	 * @param charset The charset the file is encoded in
+	 * @throws IOException If the file could not be opened or mapped
+	 */
+	public MappedFileReader(Path path, Charset charset) throws IOException {
+		_channel = FileChannel.open(path, StandardOpenOption.READ);
+		_decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		_size = _channel.size();
+		_flushed = false;
+		_pair = new char[2];
+		_pending = false;
+		map(0);
+	}
+
+	/**
+	 * Map the region of the file starting at the given position
+	 * @param start The position in the file the region starts at
+	 */
+	private void map(long start) throws IOException {
+		_regionStart = start;
+		_region = _channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, _size - start));
+	}
+
+	private boolean lastRegion() {
+		return _regionStart + _region.limit() >= _size;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if(len == 0) {
+			return 0;
+		}
+		if(_pending) {
+			_pending = false;
+			cbuf[off] = _pair[1];
+			return 1;
+		}
+		CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+		for(;;) {
+			if(_flushed) {
+				return out.position() > off ? out.position() - off : -1;
+			}
+			CoderResult result = _decoder.decode(_region, out, lastRegion());
+			if(result.isError()) {
+				result.throwException();
+			}
+			if(out.position() > off) {
+				return out.position() - off;
+			}
+			if(result.isOverflow()) {
+
+				// A surrogate pair does not fit in a single char, hand it out one half at a time
+
+				CharBuffer pair = CharBuffer.wrap(_pair);
+				_decoder.decode(_region, pair, lastRegion());
+				if(pair.position() > 1) {
+					_pending = true;
+				}
+				cbuf[off] = _pair[0];
+				return 1;
+			}
+			if(!lastRegion()) {
+
+				// Remap from the first byte not yet decoded, so a sequence split by the region boundary is kept
+
+				map(_regionStart + _region.position());
+			} else {
+				_decoder.flush(out);
+				_flushed = true;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		_region = null;
+		_channel.close();
+	}
+
+}
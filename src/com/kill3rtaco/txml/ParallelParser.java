@@ -0,0 +1,698 @@
+package com.kill3rtaco.txml;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Parses a document on a ForkJoinPool. The source is first lexed, in parallel, just far enough to follow its
+ * tags, quotes, comments and the like, which finds the elements too large to parse in one piece and places
+ * their children may be cut between. Runs of nodes are then parsed at the same time, each by its own
+ * {@link XMLTokener}, and joined back together in document order. Large elements may be nested at any depth,
+ * so a single deep tree is split as well as a long list of records.
+ * <p>
+ * Should the lexing find anything it does not expect (such as unbalanced tags), or any run fail to parse, the
+ * whole source is parsed again by {@link TXML#parseXML(XMLTokener)}, so the result and any error, along with
+ * its position, are exactly those of a sequential parse.
+ * @author KILL3RTACO
+ *
+ */
+class ParallelParser {
+
+	/** The fewest characters worth parsing in a task of their own */
+	private static final int	MIN_CHUNK		= 1 << 16;
+
+	// Kinds of pieces the scan splits the source into
+	private static final int	NODES			= 0;
+	private static final int	START			= 1;
+	private static final int	END				= 2;
+
+	private Source				_source;
+	private ForkJoinPool		_pool;
+	private long				_chunkSize;
+
+	private ParallelParser(Source source, ForkJoinPool pool) {
+		_source = source;
+		_pool = pool;
+		_chunkSize = Math.max(MIN_CHUNK, source.length() / (pool.getParallelism() * 4L));
+	}
+
+	/**
+	 * Parse a source string on the given pool
+	 * @param source The string to read from
+	 * @param pool The pool to parse on
+	 * @return A list of nodes
+	 */
+	public static List<XMLNode> parse(String source, ForkJoinPool pool) {
+		final char[] chars = source.toCharArray();
+		List<XMLNode> nodes = new ParallelParser(new CharSource(chars), pool).parse();
+		return nodes != null ? nodes : TXML.parseXML(new XMLTokener(chars, 0, chars.length));
+	}
+
+	/**
+	 * Parse a file on the given pool. The file is memory-mapped, and only the runs being parsed are decoded.
+	 * Files in charsets that do not encode markup as ASCII are parsed sequentially.
+	 * @param source The file to read
+	 * @param charset The charset the file is encoded in
+	 * @param pool The pool to parse on
+	 * @return A list of nodes
+	 * @throws TXMLException If the file could not be read
+	 */
+	public static List<XMLNode> parse(Path source, Charset charset, ForkJoinPool pool) {
+		if(!asciiCompatible(charset)) {
+			return TXML.parseXML(source, charset);
+		}
+		List<XMLNode> nodes;
+		try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+			nodes = new ParallelParser(new MappedSource(channel, charset), pool).parse();
+		} catch (IOException e) {
+			throw new TXMLException(e);
+		}
+		return nodes != null ? nodes : TXML.parseXML(source, charset);
+	}
+
+	/**
+	 * Gets whether markup is encoded in the given charset as single ASCII bytes that cannot be part of any
+	 * other character
+	 */
+	private static boolean asciiCompatible(Charset charset) {
+		if(!charset.canEncode()) {
+			return false;
+		}
+		if(!charset.equals(StandardCharsets.UTF_8) && charset.newEncoder().maxBytesPerChar() != 1) {
+			return false;
+		}
+		String markup = "<>/!?-[]'\"= \t\r\n";
+		return Arrays.equals(markup.getBytes(charset), markup.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Plan the source, then parse its pieces on the pool
+	 * @return The nodes parsed, or null if the source must be parsed sequentially
+	 */
+	private List<XMLNode> parse() {
+		List<long[]> pieces = plan();
+		if(pieces == null) {
+			return null;
+		}
+		List<ChunkTask> tasks = new ArrayList<ChunkTask>();
+		for(long[] piece : pieces) {
+			if(piece[0] == NODES) {
+				ChunkTask task = new ChunkTask(piece[1], piece[2]);
+				tasks.add(task);
+				_pool.execute(task);
+			}
+		}
+		List<XMLNode> nodes = new ArrayList<XMLNode>();
+		Deque<XMLNode> open = new ArrayDeque<XMLNode>();
+		int next = 0;
+		try {
+			for(long[] piece : pieces) {
+				List<XMLNode> parent = open.isEmpty() ? nodes : open.peek()._nodes;
+				if(piece[0] == NODES) {
+					parent.addAll(tasks.get(next++).join());
+				} else if(piece[0] == START) {
+					XMLCursor cursor = new XMLCursor(_source.tokener(piece[1], piece[2]));
+					cursor.next();
+					XMLNode node = new XMLNode(cursor.name(), cursor.attributes());
+					parent.add(node);
+					open.push(node);
+				} else {
+					closeTag(piece[1], piece[2], open.pop().name());
+				}
+			}
+		} catch (TXMLException e) {
+			for(ChunkTask task : tasks) {
+				task.cancel(false);
+			}
+			return null;
+		}
+		return nodes;
+	}
+
+	/**
+	 * Lex the close tag between start and end the same way as {@link XMLCursor} does
+	 * @param name The name of the element it should close
+	 * @throws TXMLException If the tag is misshaped or closes another element
+	 */
+	private void closeTag(long start, long end, String name) {
+		XMLTokener x = _source.tokener(start + 2, end);
+		Object token = x.nextToken();
+		if(!name.equals(token) || x.nextToken() != TXML.GT) {
+			throw x.syntaxError("Misshaped close tag");
+		}
+	}
+
+	/**
+	 * Split the source into pieces: runs of nodes, and the start and end of each element whose children are
+	 * split into runs. Each piece is {kind, start, end}.
+	 * <p>
+	 * The source is cut into fixed chunks, which are lexed at the same time. Every tag, comment, CDATA section,
+	 * declaration and processing instruction is lexed by the chunk its {@code <} is in, even if it runs past the
+	 * end of the chunk, so the only state carried from one chunk to the next is where the next of those starts.
+	 * Each chunk guesses that to be its first {@code <}. The guesses are then checked in order against where the
+	 * chunk before actually ended, and any chunk that guessed wrong (say, because its first {@code <} was inside
+	 * a comment) is lexed again from the right place.
+	 * @return The pieces, or null if the source must be parsed sequentially
+	 */
+	private List<long[]> plan() {
+		long length = _source.length();
+		int count = (int) Math.max(1, (length + _chunkSize - 1) / _chunkSize);
+		List<LexTask> tasks = new ArrayList<LexTask>(count);
+		for(int c = 0; c < count; c++) {
+			LexTask task = new LexTask(c * _chunkSize, Math.min(length, (c + 1) * _chunkSize));
+			tasks.add(task);
+			_pool.execute(task);
+		}
+		Element document = new Element(0, 0);
+		document.endStart = length;
+		List<Element> open = new ArrayList<Element>();
+		long p = 0;
+		for(int c = 0; c < count; c++) {
+			Chunk chunk = tasks.get(c).join();
+			if(chunk.start != p || chunk.failed) {
+
+				// A wrong guess, or a construct longer than the guess was allowed to follow
+				chunk = lex(p, Math.min(length, (c + 1) * _chunkSize), length);
+			}
+			if(chunk.failed) {
+				return null;
+			}
+			int depth = open.size();
+			for(int level = 0; level < chunk.levels; level++) {
+				int i = depth - 1 - level;
+				if(i < -1) {
+					return null;
+				}
+				Element e = i < 0 ? document : open.get(i);
+				if(chunk.cuts[level] > 0) {
+					e.cuts.add(chunk.cuts[level]);
+				}
+				e.text |= chunk.text[level];
+			}
+			for(int j = 0; j < chunk.closes.size; j++) {
+				if(open.isEmpty()) {
+					return null;
+				}
+				Element e = open.remove(open.size() - 1);
+				e.endStart = chunk.closes.start[j];
+				e.end = chunk.closes.end[j];
+				if(!closes(e.start + 1, e.endStart + 2)) {
+					return null;
+				}
+			}
+			for(int j = 0; j < chunk.opens.size; j++) {
+				Element e = new Element(chunk.opens.start[j], chunk.opens.end[j]);
+				e.text = chunk.opens.text[j];
+				(open.isEmpty() ? document : open.get(open.size() - 1)).children.add(e);
+				open.add(e);
+			}
+			p = chunk.end;
+		}
+		return open.isEmpty() ? pieces(document) : null;
+	}
+
+	/**
+	 * Lay out the pieces of the document. Elements that span chunks are split into their own start and end, with
+	 * their children cut into runs where the chunks found places to cut them, unless they contain text of their
+	 * own. Everything else is parsed within a run.
+	 */
+	private static List<long[]> pieces(Element document) {
+		List<long[]> pieces = new ArrayList<long[]>();
+		Deque<Element> open = new ArrayDeque<Element>();
+		open.push(document);
+		while (!open.isEmpty()) {
+			Element e = open.peek();
+			while (e.nextChild < e.children.size() && e.children.get(e.nextChild).text) {
+				e.nextChild++;
+			}
+			Element child = e.nextChild < e.children.size() ? e.children.get(e.nextChild) : null;
+			long cut = e.nextCut < e.cuts.size() ? e.cuts.get(e.nextCut) : Long.MAX_VALUE;
+			if(cut < (child != null ? child.start : e.endStart)) {
+				addRun(pieces, e.position, cut);
+				e.position = Math.max(e.position, cut);
+				e.nextCut++;
+			} else if(child != null) {
+				addRun(pieces, e.position, child.start);
+				pieces.add(new long[] {START, child.start, child.contentStart});
+				e.position = child.end;
+				e.nextChild++;
+				open.push(child);
+			} else {
+				addRun(pieces, e.position, e.endStart);
+				if(e != document) {
+					pieces.add(new long[] {END, e.endStart, e.end});
+				}
+				open.pop();
+			}
+		}
+		return pieces;
+	}
+
+	private static void addRun(List<long[]> pieces, long start, long end) {
+		if(start < end) {
+			pieces.add(new long[] {NODES, start, end});
+		}
+	}
+
+	/**
+	 * Lex the tags, comments and the like that start between from and end. Text is assumed at from.
+	 * @param from Where to start
+	 * @param end Where the chunk ends
+	 * @param limit How far a single construct may be followed before giving up
+	 * @return What the chunk contains
+	 */
+	private Chunk lex(long from, long end, long limit) {
+		Source s = _source;
+		long length = s.length();
+		Chunk chunk = new Chunk(from);
+		Tags opens = chunk.opens;
+		long i = from;
+		for(;;) {
+			long lt = i;
+			boolean text = false;
+			for(int c; lt < length && (c = s.at(lt)) != '<'; lt++) {
+				if(c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+					text = true;
+				}
+			}
+			if(text) {
+				if(opens.size > 0) {
+					opens.text[opens.size - 1] = true;
+				} else {
+					chunk.text(true);
+				}
+			}
+			if(lt >= end) {
+				chunk.end = lt;
+				return chunk;
+			}
+			int c1 = lt + 1 < length ? s.at(lt + 1) : -1;
+			long gt;
+			if(c1 == '/') {
+
+// Close tag </
+
+				gt = s.indexOf('>', lt + 2, limit);
+				if(gt < 0) {
+					return chunk.fail();
+				}
+				i = gt + 1;
+				if(opens.size > 0) {
+					opens.size -= 1;
+				} else {
+					chunk.closes.add(lt, i);
+					chunk.close();
+				}
+				if(opens.size == 0) {
+					chunk.cut(i);
+				}
+			} else if(c1 == '!') {
+				i = skipBang(lt, limit);
+				if(i < 0) {
+					return chunk.fail();
+				}
+			} else if(c1 == '?') {
+				gt = s.indexOf("?>", lt + 2, limit);
+				if(gt < 0) {
+					return chunk.fail();
+				}
+				i = gt + 2;
+			} else {
+
+// Open tag <
+
+				gt = lt + 1;
+				for(int q; gt < limit && (q = s.at(gt)) != '>'; gt++) {
+					if(q == '"' || q == '\'') {
+						gt = s.indexOf((char) q, gt + 1, limit);
+						if(gt < 0) {
+							return chunk.fail();
+						}
+					}
+				}
+				if(gt >= limit) {
+					return chunk.fail();
+				}
+				i = gt + 1;
+				long last = gt - 1;
+				while (last > lt && isSpace(s.at(last))) {
+					last--;
+				}
+				if(s.at(last) != '/') {
+					opens.add(lt, i);
+				} else if(opens.size == 0) {
+					chunk.cut(i);
+				}
+			}
+		}
+	}
+
+	private static boolean isSpace(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+
+	/**
+	 * Gets whether the close tag name starting at close (which may be followed by spaces) matches the open tag
+	 * name starting at open
+	 */
+	private boolean closes(long open, long close) {
+		Source s = _source;
+		for(;; open++, close++) {
+			int a = s.at(open);
+			int b = s.at(close);
+			boolean aEnd = a == '>' || a == '/' || isSpace(a);
+			boolean bEnd = b == '>' || isSpace(b);
+			if(aEnd || bEnd) {
+				return aEnd && bEnd;
+			} else if(a != b) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Skip a comment, CDATA section or declaration starting at i, the same way as {@link TXML#skipBang}
+	 * @return The index after it, or -1 if it does not end before limit
+	 */
+	private long skipBang(long i, long limit) {
+		Source s = _source;
+		if(s.startsWith("<!--", i)) {
+			long end = s.indexOf("-->", i + 4, limit);
+			return end < 0 ? -1 : end + 3;
+		} else if(s.startsWith("<![CDATA[", i)) {
+			long end = s.indexOf("]]>", i + 9, limit);
+			return end < 0 ? -1 : end + 3;
+		}
+		int nesting = 1;
+		for(long j = i + 2; j < limit; j++) {
+			int c = s.at(j);
+			if(c == '"' || c == '\'') {
+				j = s.indexOf((char) c, j + 1, limit);
+				if(j < 0) {
+					return -1;
+				}
+			} else if(c == '<') {
+				nesting += 1;
+			} else if(c == '>' && --nesting == 0) {
+				return j + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Lexes one chunk from its guessed start
+	 */
+	private class LexTask extends RecursiveTask<Chunk> {
+
+		private static final long	serialVersionUID	= 1L;
+
+		private long				_start, _end;
+
+		public LexTask(long start, long end) {
+			_start = start;
+			_end = end;
+		}
+
+		@Override
+		protected Chunk compute() {
+			long length = _source.length();
+			long from = _start == 0 ? 0 : _source.indexOf('<', _start, length);
+			return lex(from < 0 ? length : from, _end, Math.min(length, _end + _chunkSize));
+		}
+
+	}
+
+	/**
+	 * What a chunk contains, reduced to what matters outside of it. Elements opened and closed within the chunk
+	 * are left out. The elements open when the chunk starts are counted by level, from the innermost at 0 out.
+	 */
+	private static class Chunk {
+
+		long		start, end;
+		boolean		failed;
+
+		// Close tags of elements opened before the chunk, and open tags of elements closed after it
+		Tags		closes	= new Tags();
+		Tags		opens	= new Tags();
+
+		// For each level, where it can first be cut between children, and whether it has text of its own
+		int			levels;
+		long[]		cuts	= new long[4];
+		boolean[]	text	= new boolean[4];
+
+		Chunk(long start) {
+			this.start = start;
+			this.levels = 1;
+		}
+
+		Chunk fail() {
+			failed = true;
+			return this;
+		}
+
+		void close() {
+			levels += 1;
+			if(levels > cuts.length) {
+				cuts = Arrays.copyOf(cuts, levels * 2);
+				text = Arrays.copyOf(text, levels * 2);
+			}
+		}
+
+		void cut(long position) {
+			if(cuts[levels - 1] == 0) {
+				cuts[levels - 1] = position;
+			}
+		}
+
+		void text(boolean text) {
+			this.text[levels - 1] |= text;
+		}
+
+	}
+
+	/**
+	 * A list of tags: where each starts and ends, and whether the element has text of its own
+	 */
+	private static class Tags {
+
+		int			size;
+		long[]		start	= new long[4];
+		long[]		end		= new long[4];
+		boolean[]	text	= new boolean[4];
+
+		void add(long start, long end) {
+			if(size == this.start.length) {
+				this.start = Arrays.copyOf(this.start, size * 2);
+				this.end = Arrays.copyOf(this.end, size * 2);
+				this.text = Arrays.copyOf(this.text, size * 2);
+			}
+			this.start[size] = start;
+			this.end[size] = end;
+			this.text[size] = false;
+			size += 1;
+		}
+
+	}
+
+	/**
+	 * An element that spans chunks, or the document itself
+	 */
+	private static class Element {
+
+		long			start, contentStart, endStart, end;
+		boolean			text;
+		List<Long>		cuts		= new ArrayList<Long>();
+		List<Element>	children	= new ArrayList<Element>();
+
+		// While laying out pieces
+		long			position;
+		int				nextCut, nextChild;
+
+		Element(long start, long contentStart) {
+			this.start = start;
+			this.contentStart = contentStart;
+			this.position = contentStart;
+		}
+
+	}
+
+	/**
+	 * Parses one run of nodes
+	 */
+	private class ChunkTask extends RecursiveTask<List<XMLNode>> {
+
+		private static final long	serialVersionUID	= 1L;
+
+		private long				_start, _end;
+
+		public ChunkTask(long start, long end) {
+			_start = start;
+			_end = end;
+		}
+
+		@Override
+		protected List<XMLNode> compute() {
+			return TXML.parseXML(_source.tokener(_start, _end));
+		}
+
+	}
+
+	/**
+	 * The characters (or ASCII-compatible bytes) of a source, by their index
+	 */
+	private static abstract class Source {
+
+		abstract long length();
+
+		abstract int at(long i);
+
+		/**
+		 * Get an XMLTokener over part of this source
+		 */
+		abstract XMLTokener tokener(long start, long end);
+
+		long indexOf(char c, long from, long to) {
+			for(long i = from; i < to; i++) {
+				if(at(i) == c) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		long indexOf(String s, long from, long to) {
+			for(long i = indexOf(s.charAt(0), from, to); i >= 0; i = indexOf(s.charAt(0), i + 1, to)) {
+				if(startsWith(s, i)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		boolean startsWith(String s, long i) {
+			if(i + s.length() > length()) {
+				return false;
+			}
+			for(int j = 0; j < s.length(); j++) {
+				if(at(i + j) != s.charAt(j)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+	private static class CharSource extends Source {
+
+		private char[]	_chars;
+
+		CharSource(char[] chars) {
+			_chars = chars;
+		}
+
+		@Override
+		long length() {
+			return _chars.length;
+		}
+
+		@Override
+		int at(long i) {
+			return _chars[(int) i];
+		}
+
+		@Override
+		XMLTokener tokener(long start, long end) {
+			return new XMLTokener(_chars, (int) start, (int) end);
+		}
+
+	}
+
+	/**
+	 * A memory-mapped file, read as bytes while scanning. Each run is decoded on its own when it is parsed.
+	 */
+	private static class MappedSource extends Source {
+
+		private static final int	REGION_BITS	= 30;
+
+		private FileChannel			_channel;
+		private Charset				_charset;
+		private ByteBuffer[]		_regions;
+		private long				_length;
+
+		MappedSource(FileChannel channel, Charset charset) throws IOException {
+			_channel = channel;
+			_charset = charset;
+			_length = channel.size();
+			_regions = new ByteBuffer[(int) ((_length >>> REGION_BITS) + 1)];
+			for(int r = 0; r < _regions.length; r++) {
+				long start = (long) r << REGION_BITS;
+				_regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(1L << REGION_BITS, _length - start));
+			}
+		}
+
+		@Override
+		long length() {
+			return _length;
+		}
+
+		@Override
+		int at(long i) {
+			return _regions[(int) (i >>> REGION_BITS)].get((int) (i & ((1 << REGION_BITS) - 1))) & 0xFF;
+		}
+
+		@Override
+		XMLTokener tokener(long start, long end) {
+			if(end - start > Integer.MAX_VALUE) {
+				throw new TXMLException("Run too large to parse on its own");
+			}
+			try {
+				ByteBuffer bytes = _channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+				CharBuffer chars = _charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE).decode(bytes);
+				return new XMLTokener(chars.array(), chars.arrayOffset(), chars.arrayOffset() + chars.limit());
+			} catch (CharacterCodingException e) {
+				throw new TXMLException(e);
+			} catch (IOException e) {
+				throw new TXMLException(e);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,387 @@
+package com.kill3rtaco.txml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Writes a list of nodes in the format of {@link XMLWriter}, rendering them on a ForkJoinPool. The tree is
+ * walked on the calling thread, which first finds the subtrees of at least {@link #UNIT_NODES} nodes in one
+ * pass, then groups neighbouring subtrees into units of about that many nodes and hands each to a task that
+ * renders it into a buffer of its own. Larger subtrees are opened up instead, their start and end tags written between the units of their children. Units are written to the
+ * output in document order as they finish, and only a few per thread are held at a time, so the whole document
+ * is never held in memory.
+ * @author KILL3RTACO
+ *
+ */
+class ParallelWriter {
+
+	/** About how many nodes are rendered by each task */
+	private static final int	UNIT_NODES		= 4096;
+
+	/** Runs of fewer nodes than this are rendered by the walk itself, among the tags around them */
+	private static final int	INLINE_NODES	= 64;
+
+	private Appendable			_out;
+	private OutputStream		_stream;
+	private Charset				_charset;
+	private int					_indentFactor;
+	private ForkJoinPool		_pool;
+	private int					_window;
+
+	// Rendered units and tags waiting to be written, in order
+	private Deque<Object>		_queue;
+	private StringBuilder		_tags;
+	private XMLWriter			_tagWriter;
+
+	// The unit being gathered: a run of siblings
+	private List<XMLNode>		_run;
+	private int					_runFrom, _runTo, _runIndent, _runNodes;
+	private boolean				_runTopLevel;
+
+	// The subtrees of at least UNIT_NODES nodes
+	private Set<XMLNode>		_large;
+
+	// Scratch space for counting subtrees
+	private List<XMLNode>[]		_countLists;
+	private int[]				_countNext;
+
+	/**
+	 * Create a new ParallelWriter that writes characters
+	 * @param out Where to write to
+	 * @param indentFactor How many spaces to use every indent
+	 * @param pool The pool to render on
+	 */
+	public ParallelWriter(Appendable out, int indentFactor, ForkJoinPool pool) {
+		this(indentFactor, pool);
+		_out = out;
+	}
+
+	/**
+	 * Create a new ParallelWriter that writes bytes. Units are encoded by the tasks that render them, so the
+	 * charset must encode text the same in pieces as it does whole (see {@link #encodesInPieces(Charset)}).
+	 * @param out Where to write to
+	 * @param charset The charset to encode with
+	 * @param indentFactor How many spaces to use every indent
+	 * @param pool The pool to render on
+	 */
+	public ParallelWriter(OutputStream out, Charset charset, int indentFactor, ForkJoinPool pool) {
+		this(indentFactor, pool);
+		_stream = out;
+		_charset = charset;
+	}
+
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private ParallelWriter(int indentFactor, ForkJoinPool pool) {
+		_indentFactor = indentFactor;
+		_pool = pool;
+		_window = pool.getParallelism() * 4;
+		_queue = new ArrayDeque<Object>();
+		_tags = new StringBuilder();
+		_tagWriter = new XMLWriter(_tags, indentFactor);
+		_countLists = new List[16];
+		_countNext = new int[16];
+	}
+
+	/**
+	 * Gets whether text encoded in pieces with the given charset is the same as the whole text encoded at once.
+	 * This is not the case for charsets that start their output with a byte order mark.
+	 * @param charset The charset to check
+	 * @return true if units may be encoded separately
+	 */
+	public static boolean encodesInPieces(Charset charset) {
+		if(!charset.canEncode()) {
+			return false;
+		}
+		byte[] a = "<".getBytes(charset);
+		byte[] b = ">".getBytes(charset);
+		byte[] ab = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, ab, a.length, b.length);
+		return Arrays.equals(ab, "<>".getBytes(charset));
+	}
+
+	/**
+	 * Write the given nodes, separated by new lines if the indentFactor is greater than 0
+	 * @param nodes The nodes to write
+	 * @throws TXMLException If the output throws an IOException
+	 */
+	public void write(List<XMLNode> nodes) {
+		try {
+			findLarge(nodes);
+			walk(nodes);
+			flushRun();
+			flushTags();
+			while (!_queue.isEmpty()) {
+				writeHead();
+			}
+		} catch (RuntimeException e) {
+			for(Object item : _queue) {
+				if(item instanceof ForkJoinTask) {
+					((ForkJoinTask<?>) item).cancel(false);
+				}
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Walk the tree, gathering small subtrees into units and opening up large ones
+	 */
+	private void walk(List<XMLNode> nodes) {
+		Deque<Object[]> open = new ArrayDeque<Object[]>();
+		int[] next = new int[16];
+		int depth = 0;
+		open.push(new Object[] {null, nodes});
+		while (!open.isEmpty()) {
+			XMLNode parent = (XMLNode) open.peek()[0];
+			@SuppressWarnings("unchecked")
+			List<XMLNode> children = (List<XMLNode>) open.peek()[1];
+			boolean topLevel = parent == null;
+			int indent = depth;
+			if(next[depth] == children.size()) {
+				flushRun();
+				open.pop();
+				depth -= 1;
+				if(!topLevel) {
+					_tagWriter.writeEnd(parent, indent - 1);
+					if(depth > 0) {
+						_tagWriter.newLine();
+					}
+				}
+				continue;
+			}
+			int i = next[depth]++;
+			XMLNode child = children.get(i);
+			int count = _large.contains(child) ? UNIT_NODES : count(child);
+			if(count < UNIT_NODES || child.hasText() || child.isSelfEnding()) {
+				if(_run != children || _runTo != i) {
+					flushRun();
+					_run = children;
+					_runFrom = i;
+					_runTo = i;
+					_runIndent = indent;
+					_runTopLevel = topLevel;
+				}
+				_runTo += 1;
+				_runNodes += count;
+				if(_runNodes >= UNIT_NODES) {
+					flushRun();
+				}
+			} else {
+				flushRun();
+				if(topLevel && i > 0) {
+					_tagWriter.newLine();
+				}
+				_tagWriter.writeStart(child, indent);
+				depth += 1;
+				if(depth == next.length) {
+					next = Arrays.copyOf(next, depth * 2);
+				}
+				next[depth] = 0;
+				open.push(new Object[] {child, child._nodes});
+			}
+		}
+	}
+
+	/**
+	 * Find the subtrees of at least {@link #UNIT_NODES} nodes, counting every subtree in one post-order pass so
+	 * that none is counted again when its parent is opened up
+	 */
+	private void findLarge(List<XMLNode> nodes) {
+		_large = Collections.newSetFromMap(new IdentityHashMap<XMLNode, Boolean>());
+		XMLNode[] parents = new XMLNode[_countLists.length];
+		int[] counts = new int[_countLists.length];
+		int depth = 0;
+		_countLists[0] = nodes;
+		_countNext[0] = 0;
+		while (depth >= 0) {
+			List<XMLNode> list = _countLists[depth];
+			if(_countNext[depth] == list.size()) {
+				int count = Math.min(UNIT_NODES, counts[depth] + 1);
+				XMLNode parent = parents[depth];
+				_countLists[depth] = null;
+				parents[depth--] = null;
+				if(count >= UNIT_NODES && parent != null) {
+					_large.add(parent);
+				}
+				if(depth >= 0) {
+					counts[depth] = Math.min(UNIT_NODES, counts[depth] + count);
+				}
+				continue;
+			}
+			XMLNode child = list.get(_countNext[depth]++);
+			if(child._nodes.isEmpty()) {
+				counts[depth] = Math.min(UNIT_NODES, counts[depth] + 1);
+				continue;
+			}
+			depth += 1;
+			if(depth == _countLists.length) {
+				_countLists = Arrays.copyOf(_countLists, depth * 2);
+				_countNext = Arrays.copyOf(_countNext, depth * 2);
+				parents = Arrays.copyOf(parents, depth * 2);
+				counts = Arrays.copyOf(counts, depth * 2);
+			}
+			_countLists[depth] = child._nodes;
+			_countNext[depth] = 0;
+			parents[depth] = child;
+			counts[depth] = 0;
+		}
+	}
+
+	/**
+	 * Count the nodes in a subtree, stopping at {@link #UNIT_NODES}
+	 */
+	private int count(XMLNode node) {
+		int count = 1;
+		if(node._nodes.isEmpty()) {
+			return count;
+		}
+		int depth = 0;
+		_countLists[0] = node._nodes;
+		_countNext[0] = 0;
+		while (depth >= 0 && count < UNIT_NODES) {
+			List<XMLNode> list = _countLists[depth];
+			if(_countNext[depth] == list.size()) {
+				_countLists[depth--] = null;
+				continue;
+			}
+			XMLNode child = list.get(_countNext[depth]++);
+			count += 1;
+			if(!child._nodes.isEmpty()) {
+				depth += 1;
+				if(depth == _countLists.length) {
+					_countLists = Arrays.copyOf(_countLists, depth * 2);
+					_countNext = Arrays.copyOf(_countNext, depth * 2);
+				}
+				_countLists[depth] = child._nodes;
+				_countNext[depth] = 0;
+			}
+		}
+		Arrays.fill(_countLists, 0, depth + 1, null);
+		return count;
+	}
+
+	/**
+	 * Hand the run being gathered to a task, after the tags written before it
+	 */
+	private void flushRun() {
+		if(_run == null) {
+			return;
+		}
+		if(_runNodes < INLINE_NODES) {
+			render(_tagWriter, _run, _runFrom, _runTo, _runIndent, _runTopLevel);
+			_run = null;
+			_runNodes = 0;
+			return;
+		}
+		flushTags();
+		RenderTask task = new RenderTask(_run, _runFrom, _runTo, _runIndent, _runTopLevel);
+		_run = null;
+		_runNodes = 0;
+		_pool.execute(task);
+		_queue.add(task);
+		while (_queue.size() > _window) {
+			writeHead();
+		}
+	}
+
+	private void flushTags() {
+		if(_tags.length() > 0) {
+			String tags = _tags.toString();
+			_queue.add(_stream != null ? tags.getBytes(_charset) : tags);
+			_tags.setLength(0);
+		}
+	}
+
+	/**
+	 * Write the first item waiting, waiting for it to be rendered if need be
+	 */
+	private void writeHead() {
+		Object item = _queue.poll();
+		if(item instanceof ForkJoinTask) {
+			item = ((ForkJoinTask<?>) item).join();
+		}
+		try {
+			if(item instanceof byte[]) {
+				_stream.write((byte[]) item);
+			} else {
+				XMLEscaper.append(_out, (String) item, 0, ((String) item).length());
+			}
+		} catch (IOException e) {
+			throw new TXMLException(e);
+		}
+	}
+
+	/**
+	 * Render a run of siblings as {@link XMLWriter} would within their parent (or at the top level)
+	 */
+	private static void render(XMLWriter writer, List<XMLNode> nodes, int from, int to, int indent, boolean topLevel) {
+		for(int i = from; i < to; i++) {
+			if(topLevel && i > 0) {
+				writer.newLine();
+			}
+			writer.write(nodes.get(i), indent);
+			if(!topLevel) {
+				writer.newLine();
+			}
+		}
+	}
+
+	/**
+	 * Renders a run of siblings as {@link XMLWriter} would within their parent (or at the top level)
+	 */
+	private class RenderTask extends RecursiveTask<Object> {
+
+		private static final long	serialVersionUID	= 1L;
+
+		private List<XMLNode>		_nodes;
+		private int					_from, _to, _indent;
+		private boolean				_topLevel;
+
+		public RenderTask(List<XMLNode> nodes, int from, int to, int indent, boolean topLevel) {
+			_nodes = nodes;
+			_from = from;
+			_to = to;
+			_indent = indent;
+			_topLevel = topLevel;
+		}
+
+		@Override
+		protected Object compute() {
+			StringBuilder sb = new StringBuilder();
+			render(new XMLWriter(sb, _indentFactor), _nodes, _from, _to, _indent, _topLevel);
+			String s = sb.toString();
+			return _stream != null ? s.getBytes(_charset) : s;
+		}
+
+	}
+
+}
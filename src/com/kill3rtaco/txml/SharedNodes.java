@@ -0,0 +1,113 @@
+package com.kill3rtaco.txml;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The children of a clone of a shared container. Until it is first changed, the list only holds the shared
+ * container's nodes, and reading it reads them. Changing it clones each of them, which for shared nodes takes
+ * constant time, so a clone is only copied one level at a time along the paths that are changed.
+ * {@link XMLContainer} also clones them before handing its nodes out, so that they can be changed in turn.
+ * @author KILL3RTACO
+ *
+ */
+class SharedNodes extends DeferredNodes {
+
+	private XMLContainer	_container;
+	private List<XMLNode>	_shared, _nodes;
+	private boolean			_frozen;
+
+	/**
+	 * @param container The clone
+	 * @param shared The nodes of the shared container it is a clone of
+	 * @param frozen Whether the shared container is frozen
+	 */
+	public SharedNodes(XMLContainer container, List<XMLNode> shared, boolean frozen) {
+		_container = container;
+		_shared = shared;
+		_frozen = frozen;
+	}
+
+	/**
+	 * Get whether the shared container is frozen, so that the clone is too once it is shared and still has its
+	 * nodes
+	 */
+	boolean isFrozen() {
+		return _frozen;
+	}
+
+	/**
+	 * Get the shared nodes if they have not been cloned yet
+	 * @return The shared nodes, or null
+	 */
+	List<XMLNode> shared() {
+		return _nodes == null ? _shared : null;
+	}
+
+	/**
+	 * Get the nodes to read, without cloning them
+	 */
+	private List<XMLNode> current() {
+		return _nodes == null ? _shared : _nodes;
+	}
+
+	@Override
+	public XMLNode get(int index) {
+		return current().get(index);
+	}
+
+	@Override
+	public int size() {
+		return current().size();
+	}
+
+	@Override
+	public Iterator<XMLNode> iterator() {
+		return current().iterator();
+	}
+
+	@Override
+	public ListIterator<XMLNode> listIterator(int index) {
+		return current().listIterator(index);
+	}
+
+	/**
+	 * Get the nodes to change, cloning the shared nodes the first time
+	 */
+	@Override
+	List<XMLNode> nodes() {
+		if(_nodes == null) {
+			List<XMLNode> nodes = new ArrayList<XMLNode>(_shared.size());
+			for(XMLNode n : _shared) {
+				nodes.add(n.clone());
+			}
+			_nodes = nodes;
+			_shared = null;
+			if(_container._nodes == this) {
+				_container._nodes = nodes;
+			}
+		}
+		return _nodes;
+	}
+
+}
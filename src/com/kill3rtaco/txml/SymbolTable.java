@@ -0,0 +1,131 @@
+package com.kill3rtaco.txml;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A table of canonical String instances for tag and attribute names. An {@link XMLTokener} resolves every name
+ * it reads through its table, straight from its character window, so a name repeated throughout a document is
+ * only allocated once. A table may be shared by several XMLTokeners, but is not thread-safe.
+ * @author KILL3RTACO
+ *
+ */
+public class SymbolTable {
+
+	/** The most symbols a table will hold. Names read after that are still returned, but not kept. */
+	public static final int	MAX_SYMBOLS	= 4096;
+
+	private String[]		_symbols;
+	private int[]			_hashes;
+	private int				_size;
+
+	/**
+	 * Create a new, empty SymbolTable
+	 */
+	public SymbolTable() {
+		clear();
+	}
+
+	/**
+	 * Get the canonical String for the given characters, adding it to this table if it is not yet present.
+	 * @param chars The characters of the symbol
+	 * @param offset The index of the first character
+	 * @param length The number of characters
+	 * @return A String equal to the given characters
+	 */
+	public String intern(char[] chars, int offset, int length) {
+		int hash = 0;
+		for(int i = 0; i < length; i++) {
+			hash = 31 * hash + chars[offset + i];
+		}
+		int mask = _symbols.length - 1;
+		int i = (hash ^ (hash >>> 16)) & mask;
+		for(String s; (s = _symbols[i]) != null; i = (i + 1) & mask) {
+			if(_hashes[i] == hash && matches(s, chars, offset, length)) {
+				return s;
+			}
+		}
+		String symbol = new String(chars, offset, length);
+		if(_size < MAX_SYMBOLS) {
+			_symbols[i] = symbol;
+			_hashes[i] = hash;
+			_size += 1;
+			if(_size * 2 > _symbols.length) {
+				rehash();
+			}
+		}
+		return symbol;
+	}
+
+	/**
+	 * Get the canonical String equal to the given String, adding it to this table if it is not yet present.
+	 * @param symbol The symbol
+	 * @return A String equal to the given String
+	 */
+	public String intern(String symbol) {
+		return intern(symbol.toCharArray(), 0, symbol.length());
+	}
+
+	/**
+	 * Get the number of symbols in this table
+	 * @return The number of symbols in this table
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Remove all symbols from this table
+	 */
+	public void clear() {
+		_symbols = new String[64];
+		_hashes = new int[64];
+		_size = 0;
+	}
+
+	private static boolean matches(String s, char[] chars, int offset, int length) {
+		if(s.length() != length) {
+			return false;
+		}
+		for(int i = 0; i < length; i++) {
+			if(s.charAt(i) != chars[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash() {
+		String[] symbols = _symbols;
+		int[] hashes = _hashes;
+		_symbols = new String[symbols.length * 2];
+		_hashes = new int[symbols.length * 2];
+		int mask = _symbols.length - 1;
+		for(int j = 0; j < symbols.length; j++) {
+			if(symbols[j] != null) {
+				int i = (hashes[j] ^ (hashes[j] >>> 16)) & mask;
+				while (_symbols[i] != null) {
+					i = (i + 1) & mask;
+				}
+				_symbols[i] = symbols[j];
+				_hashes[i] = hashes[j];
+			}
+		}
+	}
+
+}
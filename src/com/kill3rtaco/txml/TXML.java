@@ -1,13 +1,32 @@
 package com.kill3rtaco.txml;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /*
  * TXML
@@ -96,14 +115,25 @@ public class TXML {
 	 * @return The contents of the stream
 	 */
 	public static String stringFromStream(InputStream stream) {
-		String source = "";
+		StringBuilder source = new StringBuilder();
 		Scanner x = new Scanner(stream);
 		while (x.hasNextLine()) {
-			source += x.nextLine() + " \n";
+			source.append(x.nextLine()).append(" \n");
 		}
-		source = source.trim();
 		x.close();
-		return source;
+		return source.toString().trim();
+	}
+	
+	/**
+	 * Close the given stream, ignoring any exception thrown
+	 * @param closeable The stream to close
+	 */
+	static void close(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			//ignore
+		}
 	}
 	
 	/**
@@ -113,213 +143,121 @@ public class TXML {
 	 * @returna String containing spaces based on the amount of indents.
 	 */
 	public static String getSpaces(int indent, int indentFactor) {
-		String spaces = "";
-		for(int i = 0; i < indent * indentFactor; i++) {
-			spaces += " ";
-		}
-		return spaces;
+		char[] spaces = new char[Math.max(0, indent * indentFactor)];
+		Arrays.fill(spaces, ' ');
+		return new String(spaces);
 	}
 	
-	//copied from org.json.JSONML and modified as needed.
-	private static Object parseNode(XMLTokener x, XMLNode node) {
-// Test for and skip past these forms:
-//      <!-- ... -->
-//      <![  ... ]]>
-//      <!   ...   >
-//      <?   ...  ?>
-		
-		while (true) {
-			if(!x.more()) {
-				throw x.syntaxError("Bad XML");
+	/**
+	 * Skip past a comment, CDATA section or declaration whose {@code <!} has just been read.
+	 * @param x The XMLTokener to use
+	 */
+	static void skipBang(XMLTokener x) {
+		Object token;
+		char c = x.next();
+		if(c == '-') {
+			if(x.next() == '-') {
+				x.skipPast("-->");
+				//skip
+			} else {
+				x.back();
 			}
-			Object token = x.nextContent();
-			if(token == TXML.LT) {
-				token = x.nextToken();
-				if(token instanceof Character) {
-					if(token == TXML.SLASH) {
-						
-// Close tag </
-						
-						token = x.nextToken();
-						if(!(token instanceof String)) {
-							throw new TXMLException(
-									"Expected a closing name instead of '" +
-											token + "'.");
-						}
-						if(x.nextToken() != TXML.GT) {
-							throw x.syntaxError("Misshaped close tag");
-						}
-						return token;
-					} else if(token == TXML.BANG) {
-						
-// <!
-						
-						char c = x.next();
-						if(c == '-') {
-							if(x.next() == '-') {
-								x.skipPast("-->");
-								//skip
-							} else {
-								x.back();
-							}
-						} else if(c == '[') { //<![
-							token = x.nextToken();
-							if(token.equals("CDATA") && x.next() == '[') { //<![CDATA[
-								x.nextCDATA();
-								//skip
-							} else {
-								throw x.syntaxError("Expected 'CDATA['");
-							}
-						} else {
-							int i = 1;
-							do {
-								token = x.nextMeta();
-								if(token == null) {
-									throw x.syntaxError("Missing '>' after '<!'.");
-								} else if(token == TXML.LT) {
-									i += 1;
-								} else if(token == TXML.GT) {
-									i -= 1;
-								}
-							} while (i > 0);
-						}
-					} else if(token == TXML.QUEST) {
-						
-// <?
-						
-						x.skipPast("?>");
-						//skip
-					} else {
-						throw x.syntaxError("Misshaped tag");
-					}
-					
-// Open tag <
-					
-				} else {
-					if(!(token instanceof String)) {
-						throw x.syntaxError("Bad tagName '" + token + "'.");
-					}
-					String tagName = (String) token;
-					XMLNode newNode = new XMLNode(tagName);
-//					newja = new JSONArray();
-//					newjo = new JSONObject();
-//					if(arrayForm) {
-//						newja.put(tagName);
-//						if(ja != null) {
-//							ja.put(newja);
-//						}
-//					} else {
-//						newjo.put("tagName", tagName);
-//						if(ja != null) {
-//							ja.put(newjo);
-//						}
-//					}
-					if(node != null) {
-						if(node.hasText()) {
-							throw x.syntaxError("Nodes cannot contain text and nodes");
-						}
-						node.addNode(newNode);
-					}
-					
-					token = null;
-					for(;;) {
-						if(token == null) {
-							token = x.nextToken();
-						}
-						if(token == null) {
-							throw x.syntaxError("Misshaped tag");
-						}
-						if(!(token instanceof String)) {
-							break;
-						}
-						
-// attribute = value
-						
-						String attribute = (String) token;
-//						if(!arrayForm && ("tagName".equals(attribute) || "childNode".equals(attribute))) {
-//							throw x.syntaxError("Reserved attribute.");
-//						}
-						token = x.nextToken();
-						if(token == TXML.EQ) {
-							token = x.nextToken();
-							if(!(token instanceof String)) {
-								throw x.syntaxError("Missing value");
-							}
-							newNode.setAttribute(attribute, (String) token);
-							token = null;
-						} else {
-							newNode.setAttribute(attribute, "");
-						}
-					}
-//					if(arrayForm && newjo.length() > 0) {
-//						newja.put(newjo);
-//					}
-					
-// Empty tag <.../>
-					
-					if(token == TXML.SLASH) {
-						if(x.nextToken() != TXML.GT) {
-							throw x.syntaxError("Misshaped tag");
-						}
-						newNode.setSelfEnding(true);
-//						if(ja == null) {
-//							if(arrayForm) {
-//								return newja;
-//							} else {
-//								return newjo;
-//							}
-//						}
-						if(node == null) {
-							return newNode;
-						}
-						
-// Content, between <...> and </...>
-						
-					} else {
-						if(token != TXML.GT) {
-							throw x.syntaxError("Misshaped tag");
-						}
-						Object close = parseNode(x, newNode);
-						String closeTag = close instanceof String ? (String) close : ((XMLNode) close).name();
-						if(closeTag != null) {
-							if(!closeTag.equals(tagName)) {
-								throw x.syntaxError("Mismatched '" + tagName +
-										"' and '" + closeTag + "'");
-							}
-							tagName = null;
-//							if(!arrayForm && newja.length() > 0) {
-//								newjo.put("childNodes", newja);
-//							}
-							if(node == null) {
-								return newNode;
-							}
-							
-						}
-					}
-				}
+		} else if(c == '[') { //<![
+			token = x.nextToken();
+			if(token.equals("CDATA") && x.next() == '[') { //<![CDATA[
+				x.nextCDATA();
+				//skip
 			} else {
-				if(node != null) {
-					if(node.hasNodes()) {
-						throw x.syntaxError("XMLNodes cannot contain text and nodes");
-					}
-					node.setText(token.toString());
+				throw x.syntaxError("Expected 'CDATA['");
+			}
+		} else {
+			int i = 1;
+			do {
+				token = x.nextMeta();
+				if(token == null) {
+					throw x.syntaxError("Missing '>' after '<!'.");
+				} else if(token == TXML.LT) {
+					i += 1;
+				} else if(token == TXML.GT) {
+					i -= 1;
 				}
+			} while (i > 0);
+		}
+	}
+	
+	/**
+	 * Build the element a cursor has just started, along with everything it contains. The cursor is left at the
+	 * end of the element. Nodes are built without recursion, so elements may be nested to any depth. Each name
+	 * is checked as {@link XMLNode#setName(String)} would only the first time it is used.
+	 * @param cursor A cursor at a {@link XMLCursor#START_ELEMENT} event
+	 * @param checked The names already checked, which names are added to as they pass
+	 * @return The node built
+	 */
+	static XMLNode buildNode(XMLCursor cursor, Set<String> checked) {
+		Deque<XMLNode> open = new ArrayDeque<XMLNode>();
+		open.push(newNode(cursor.name(), checked));
+		for(;;) {
+			XMLNode node;
+			switch(cursor.next()) {
+				case XMLCursor.START_ELEMENT:
+					node = newNode(cursor.name(), checked);
+					open.peek().addNode(node);
+					open.push(node);
+					break;
+				case XMLCursor.ATTRIBUTE:
+					open.peek().setAttribute(cursor.attributeName(), cursor.attributeValue());
+					break;
+				case XMLCursor.TEXT:
+					open.peek().setText(cursor.text());
+					break;
+				case XMLCursor.END_ELEMENT:
+					node = open.pop();
+					if(cursor.isSelfEnding()) {
+						node.setSelfEnding(true);
+					}
+					if(open.isEmpty()) {
+						return node;
+					}
+					break;
 			}
 		}
-		
+	}
+	
+	private static XMLNode newNode(String name, Set<String> checked) {
+		if(!checked.contains(name)) {
+			XMLNode.checkName(name);
+			if(checked.size() < SymbolTable.MAX_SYMBOLS) {
+				checked.add(name);
+			}
+		}
+		return XMLNode.checked(name);
 	}
 	
 	/**
-	 * Get a list of nodes using an XMLTokener
+	 * Get a list of nodes using an XMLTokener. Nodes are built without recursion, so documents may be nested
+	 * to any depth.
 	 * @param x The XMLTokener to use
 	 * @return A list of nodes
 	 */
 	public static List<XMLNode> parseXML(XMLTokener x) {
+		return parseXML(new XMLCursor(x), new HashSet<String>());
+	}
+	
+	/**
+	 * Get a list of nodes from a cursor at the start of a document
+	 * @param checked The names already checked, as in {@link #buildNode(XMLCursor, Set)}
+	 */
+	static List<XMLNode> parseXML(XMLCursor cursor, Set<String> checked) {
 		List<XMLNode> nodes = new ArrayList<XMLNode>();
-		while (x.more()) {
-			nodes.add((XMLNode) parseNode(x, null));
+		for(;;) {
+			switch(cursor.next()) {
+				case XMLCursor.START_ELEMENT:
+					nodes.add(buildNode(cursor, checked));
+					break;
+				case XMLCursor.END_DOCUMENT:
+					return nodes;
+			}
 		}
-		return nodes;
 	}
 	
 	/**
@@ -332,12 +270,157 @@ public class TXML {
 	}
 	
 	/**
-	 * Get a list of nodes from a stream
+	 * Get a list of nodes from a stream, decoded using the platform's default charset. The stream is closed
+	 * once it has been read.
 	 * @param source The stream to read
 	 * @return a list of nodes
 	 */
 	public static List<XMLNode> parseXML(InputStream source) {
-		return parseXML(new XMLTokener(stringFromStream(source)));
+		return parseXML(source, Charset.defaultCharset());
+	}
+	
+	/**
+	 * Get a list of nodes from a stream. The stream is decoded as it is parsed, and is closed once it has been
+	 * read.
+	 * @param source The stream to read
+	 * @param charset The charset to decode the stream with
+	 * @return a list of nodes
+	 */
+	public static List<XMLNode> parseXML(InputStream source, Charset charset) {
+		try {
+			return parseXML(new XMLTokener(source, charset));
+		} finally {
+			close(source);
+		}
+	}
+	
+	/**
+	 * Get a list of nodes from a file, decoded using the platform's default charset. The file is memory-mapped
+	 * and decoded as it is parsed.
+	 * @param source The file to read
+	 * @return a list of nodes
+	 * @throws TXMLException If the file could not be read
+	 */
+	public static List<XMLNode> parseXML(Path source) {
+		return parseXML(source, Charset.defaultCharset());
+	}
+	
+	/**
+	 * Get a list of nodes from a file. The file is memory-mapped and decoded as it is parsed.
+	 * @param source The file to read
+	 * @param charset The charset the file is encoded in
+	 * @return a list of nodes
+	 * @throws TXMLException If the file could not be read
+	 */
+	public static List<XMLNode> parseXML(Path source, Charset charset) {
+		MappedFileReader reader;
+		try {
+			reader = new MappedFileReader(source, charset);
+		} catch (IOException e) {
+			throw new TXMLException(e);
+		}
+		try {
+			return parseXML(new XMLTokener(reader));
+		} finally {
+			close(reader);
+		}
+	}
+	
+	/**
+	 * Get a list of nodes from a source string, parsing it in chunks on the common ForkJoinPool.
+	 * @param source The string to read from
+	 * @return a list of nodes, the same as {@link #parseXML(String)}
+	 * @see #parseXMLParallel(String, ForkJoinPool)
+	 */
+	public static List<XMLNode> parseXMLParallel(String source) {
+		return parseXMLParallel(source, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Get a list of nodes from a source string, parsing it in chunks on the given pool. The source is cut into
+	 * fixed chunks that are lexed at the same time, each guessing that its first {@code <} starts a tag. The
+	 * guesses are then checked in order, and a chunk that guessed wrong is lexed again. Elements that span
+	 * chunks are split into their start tag, runs of children and end tag at any depth, so a single deep tree
+	 * is split as well as a list of records, and the runs are parsed at the same time by separate XMLTokeners.
+	 * If anything cannot be split safely, such as a syntax error, the source is parsed sequentially instead, so
+	 * the result, and any syntax error along with its position, are the same as those of
+	 * {@link #parseXML(String)}.
+	 * @param source The string to read from
+	 * @param pool The pool to parse on
+	 * @return a list of nodes
+	 */
+	public static List<XMLNode> parseXMLParallel(String source, ForkJoinPool pool) {
+		return ParallelParser.parse(source, pool);
+	}
+	
+	/**
+	 * Get a list of nodes from a file, parsing it in chunks on the common ForkJoinPool.
+	 * @param source The file to read
+	 * @param charset The charset the file is encoded in
+	 * @return a list of nodes, the same as {@link #parseXML(Path, Charset)}
+	 * @throws TXMLException If the file could not be read
+	 * @see #parseXMLParallel(Path, Charset, ForkJoinPool)
+	 */
+	public static List<XMLNode> parseXMLParallel(Path source, Charset charset) {
+		return parseXMLParallel(source, charset, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Get a list of nodes from a file, parsing it in chunks on the given pool. The file is memory-mapped and
+	 * lexed in chunks the same way as by {@link #parseXMLParallel(String, ForkJoinPool)}, then the runs of
+	 * nodes are decoded and parsed at the same time by separate XMLTokeners. Files in charsets that do not
+	 * encode markup as single ASCII bytes (such as UTF-16), and files that cannot be split safely, are parsed
+	 * sequentially. The result, and any syntax error along with its position, are the same as those of
+	 * {@link #parseXML(Path, Charset)}.
+	 * @param source The file to read
+	 * @param charset The charset the file is encoded in
+	 * @param pool The pool to parse on
+	 * @return a list of nodes
+	 * @throws TXMLException If the file could not be read
+	 */
+	public static List<XMLNode> parseXMLParallel(Path source, Charset charset, ForkJoinPool pool) {
+		return ParallelParser.parse(source, charset, pool);
+	}
+	
+	/**
+	 * Get a list of nodes from a source string, reading the attributes, text and children of each node only
+	 * when they are first used. Nodes are found by matching start and end tags, without reading names,
+	 * attributes or text, in one pass that records where every element ends. Reading a node looks its children
+	 * up there, so it costs only as much as the node's own tags and text, and the parts of a document that are
+	 * never used are scanned once but never parsed or built. The nodes read are the same as those of
+	 * {@link #parseXML(String)}, but a syntax error within an element is only reported when the element is read.
+	 * @param source The string to read from
+	 * @return a list of nodes
+	 */
+	public static List<XMLNode> parseXMLLazy(String source) {
+		return LazyNodes.parse(source.toCharArray(), source.length());
+	}
+	
+	/**
+	 * Get a list of nodes from a file, reading the attributes, text and children of each node only when they
+	 * are first used. The file is decoded into memory, where it is kept while any of its nodes are unread.
+	 * @param source The file to read
+	 * @param charset The charset the file is encoded in
+	 * @return a list of nodes
+	 * @throws TXMLException If the file could not be read
+	 * @see #parseXMLLazy(String)
+	 */
+	public static List<XMLNode> parseXMLLazy(Path source, Charset charset) {
+		CharBuffer chars = decode(source, charset);
+		return LazyNodes.parse(chars.array(), chars.limit());
+	}
+	
+	/**
+	 * Read a whole file into memory
+	 * @return The characters of the file, in an array from its start to its limit
+	 * @throws TXMLException If the file could not be read
+	 */
+	static CharBuffer decode(Path source, Charset charset) {
+		try {
+			return charset.decode(ByteBuffer.wrap(Files.readAllBytes(source)));
+		} catch (IOException e) {
+			throw new TXMLException(e);
+		}
 	}
 	
 	/**
@@ -348,4 +431,160 @@ public class TXML {
 	public static List<XMLNode> parseXML(Reader source) {
 		return parseXML(new XMLTokener(source));
 	}
+	
+	/**
+	 * Parse the source read by an XMLTokener, calling the given handler for each element, run of text and
+	 * processing instruction instead of building {@link XMLNode}s.
+	 * @param x The XMLTokener to use
+	 * @param handler The handler to call
+	 * @throws TXMLException If the source is not well formed
+	 */
+	public static void parse(XMLTokener x, XMLHandler handler) {
+		XMLCursor cursor = new XMLCursor(x);
+		AttributeMap attributes = new AttributeMap();
+		for(;;) {
+			switch(cursor.next()) {
+				case XMLCursor.START_ELEMENT:
+					attributes.clear();
+					cursor.readAttributes(attributes);
+					handler.startElement(cursor.name(), attributes);
+					break;
+				case XMLCursor.TEXT:
+					handler.text(cursor.text());
+					break;
+				case XMLCursor.END_ELEMENT:
+					handler.endElement(cursor.name());
+					break;
+				case XMLCursor.PROCESSING_INSTRUCTION:
+					handler.processingInstruction(cursor.name(), cursor.text());
+					break;
+				case XMLCursor.END_DOCUMENT:
+					return;
+			}
+		}
+	}
+	
+	/**
+	 * Parse a source string, calling the given handler instead of building {@link XMLNode}s.
+	 * @param source The string to read from
+	 * @param handler The handler to call
+	 * @throws TXMLException If the source is not well formed
+	 */
+	public static void parse(String source, XMLHandler handler) {
+		parse(new XMLTokener(source), handler);
+	}
+	
+	/**
+	 * Parse a Reader, calling the given handler instead of building {@link XMLNode}s.
+	 * @param source The reader to read from
+	 * @param handler The handler to call
+	 * @throws TXMLException If the source is not well formed
+	 */
+	public static void parse(Reader source, XMLHandler handler) {
+		parse(new XMLTokener(source), handler);
+	}
+	
+	/**
+	 * Parse a stream, calling the given handler instead of building {@link XMLNode}s. The stream is closed
+	 * once it has been read.
+	 * @param source The stream to read
+	 * @param charset The charset to decode the stream with
+	 * @param handler The handler to call
+	 * @throws TXMLException If the source is not well formed
+	 */
+	public static void parse(InputStream source, Charset charset, XMLHandler handler) {
+		try {
+			parse(new XMLTokener(source, charset), handler);
+		} finally {
+			close(source);
+		}
+	}
+	
+	/**
+	 * Get a lazily parsed Stream of every element with the given name. Each element is built, along with
+	 * everything it contains, only when the Stream reaches it, and the elements around it are never built, so
+	 * only the current record is held in memory. Elements nested inside a matching element are part of that
+	 * element rather than separate records.
+	 * @param x The XMLTokener to use
+	 * @param recordTagName The name of the elements to return
+	 * @return A Stream of the matching elements, in document order
+	 * @throws TXMLException If the source is not well formed, once the Stream reaches the problem
+	 */
+	public static Stream<XMLNode> stream(XMLTokener x, String recordTagName) {
+		Iterator<XMLNode> records = new RecordIterator(new XMLCursor(x), recordTagName);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(records,
+				Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+	
+	/**
+	 * Get a lazily parsed Stream of every element with the given name in a stream, decoded using the
+	 * platform's default charset. The source stream is closed when the returned Stream is closed.
+	 * @param source The stream to read
+	 * @param recordTagName The name of the elements to return
+	 * @return A Stream of the matching elements, in document order
+	 * @see #stream(XMLTokener, String)
+	 */
+	public static Stream<XMLNode> stream(InputStream source, String recordTagName) {
+		return stream(source, Charset.defaultCharset(), recordTagName);
+	}
+	
+	/**
+	 * Get a lazily parsed Stream of every element with the given name in a stream. The source stream is closed
+	 * when the returned Stream is closed.
+	 * @param source The stream to read
+	 * @param charset The charset to decode the stream with
+	 * @param recordTagName The name of the elements to return
+	 * @return A Stream of the matching elements, in document order
+	 * @see #stream(XMLTokener, String)
+	 */
+	public static Stream<XMLNode> stream(final InputStream source, Charset charset, String recordTagName) {
+		return stream(new XMLTokener(source, charset), recordTagName).onClose(new Runnable() {
+			
+			@Override
+			public void run() {
+				close(source);
+			}
+			
+		});
+	}
+	
+	/**
+	 * Iterates over the elements with a given name, building each one as it is reached
+	 */
+	private static class RecordIterator implements Iterator<XMLNode> {
+		
+		private XMLCursor	_cursor;
+		private String		_name;
+		private XMLNode		_next;
+		
+		// Names already checked, kept from one record to the next
+		private Set<String>	_checked;
+		
+		public RecordIterator(XMLCursor cursor, String name) {
+			_cursor = cursor;
+			_name = name;
+			_checked = new HashSet<String>();
+		}
+		
+		@Override
+		public boolean hasNext() {
+			while (_next == null && _cursor.hasNext()) {
+				if(_cursor.next() == XMLCursor.START_ELEMENT && _cursor.name().equals(_name)) {
+					_next = buildNode(_cursor, _checked);
+				}
+			}
+			return _next != null;
+		}
+		
+		@Override
+		public XMLNode next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			XMLNode node = _next;
+			_next = null;
+			return node;
+		}
+		
+	}
 }
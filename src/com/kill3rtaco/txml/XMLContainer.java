@@ -1,9 +1,23 @@
 package com.kill3rtaco.txml;
 
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /*
  * TXML
@@ -30,7 +44,22 @@ import java.util.Map;
  */
 public abstract class XMLContainer implements Cloneable {
 	
-	protected List<XMLNode>	_nodes;
+	/** Containers with fewer nodes than this are searched linearly rather than indexed by name */
+	private static final int			INDEX_THRESHOLD	= 16;
+	
+	protected List<XMLNode>				_nodes;
+	
+	// Whether this container and everything below it may be shared by clones, and so may no longer change
+	protected boolean					_shared;
+	
+	// Whether this container and everything below it have been frozen
+	private boolean						_frozen;
+	
+	// Top-level nodes by name, in document order. Only valid for _indexedNodes at _indexedSize; renaming a node
+	// discards the index of every container it is indexed by
+	private Map<String, List<XMLNode>>	_index;
+	private List<XMLNode>				_indexedNodes;
+	private int							_indexedSize;
 	
 	public XMLContainer() {
 		_nodes = new ArrayList<XMLNode>();
@@ -77,13 +106,19 @@ public abstract class XMLContainer implements Cloneable {
 	 * @throws TXMLException If this container is self-ending or something else goes wrong
 	 */
 	public XMLNode addNode(XMLNode node) {
+		checkShared();
 		if(isSelfEnding()) {
 			throw new TXMLException("Cannot add nodes to self-ending nodes");
 		}
 		if(node == null) {
 			throw new TXMLException("Cannot add a null node");
 		}
+		boolean indexed = indexValid(_nodes.size());
 		_nodes.add(node);
+		if(indexed) {
+			indexNode(node);
+			_indexedSize += 1;
+		}
 		return node;
 	}
 	
@@ -96,11 +131,22 @@ public abstract class XMLContainer implements Cloneable {
 	}
 	
 	/**
-	 * Get a list of top-level nodes in this conatiner.
+	 * Get a list of top-level nodes in this conatiner. Changes to the returned list are made to this container,
+	 * and fail if it is shared.
 	 * @return The nodes in this container.
 	 */
 	public List<XMLNode> nodes() {
-		return _nodes;
+		return new NodeList();
+	}
+	
+	/**
+	 * Get a Stream of every node below this container, in document order. The Stream splits by subtree, so a
+	 * parallel Stream spreads a search over a large tree across threads. This container must not be modified
+	 * while the Stream is in use.
+	 * @return The descendants of this container
+	 */
+	public Stream<XMLNode> descendants() {
+		return StreamSupport.stream(new DescendantSpliterator(null, _nodes), false);
 	}
 	
 	/**
@@ -109,13 +155,17 @@ public abstract class XMLContainer implements Cloneable {
 	 * @return whether the node was removed
 	 */
 	public boolean remove(XMLNode node) {
+		checkShared();
+		invalidateIndex();
 		return _nodes.remove(node);
 	}
 	
 	public XMLNode removeFirst() {
+		checkShared();
 		if(_nodes.isEmpty()) {
 			return null;
 		}
+		invalidateIndex();
 		return _nodes.remove(0);
 	}
 	
@@ -125,6 +175,7 @@ public abstract class XMLContainer implements Cloneable {
 	 * @return The node that was removed, or null if no node was found
 	 */
 	public XMLNode removeFirst(String name) {
+		checkShared();
 		if(isEmpty()) {
 			return null;
 		} else {
@@ -133,6 +184,7 @@ public abstract class XMLContainer implements Cloneable {
 				return null;
 			}
 			XMLNode n = nodes.get(0);
+			invalidateIndex();
 			_nodes.remove(n);
 			return n;
 		}
@@ -144,7 +196,68 @@ public abstract class XMLContainer implements Cloneable {
 	 * @return If one of the nodes was removed
 	 */
 	public boolean removeAll(Collection<XMLNode> nodes) {
-		return _nodes.removeAll(nodes);
+		final Collection<XMLNode> set = nodes instanceof Set ? nodes : new HashSet<XMLNode>(nodes);
+		return removeIf(n -> set.contains(n));
+	}
+	
+	/**
+	 * Remove all top-level nodes in this container that match the given predicate. The nodes are removed in a
+	 * single pass, however many of them there are.
+	 * @param filter The predicate nodes to remove match
+	 * @return If any nodes were removed
+	 */
+	public boolean removeIf(Predicate<XMLNode> filter) {
+		return removeIf(filter, null) > 0;
+	}
+	
+	/**
+	 * Remove all top-level nodes that match the given predicate, compacting the rest in place. Every node is
+	 * tested before any is removed, so nothing is removed if the predicate throws.
+	 * @param filter The predicate nodes to remove match
+	 * @param removed A list to add the removed nodes to, in document order, or null
+	 * @return How many nodes were removed
+	 */
+	private int removeIf(Predicate<XMLNode> filter, List<XMLNode> removed) {
+		checkShared();
+		int size = _nodes.size();
+		BitSet matches = new BitSet(size);
+		for(int i = 0; i < size; i++) {
+			if(filter.test(_nodes.get(i))) {
+				matches.set(i);
+			}
+		}
+		if(matches.isEmpty()) {
+			return 0;
+		}
+		List<XMLNode> nodes = ownNodes();
+		int kept = matches.nextSetBit(0);
+		for(int i = kept; i < size; i++) {
+			XMLNode n = nodes.get(i);
+			if(matches.get(i)) {
+				if(removed != null) {
+					removed.add(n);
+				}
+			} else {
+				nodes.set(kept++, n);
+			}
+		}
+		invalidateIndex();
+		nodes.subList(kept, size).clear();
+		return size - kept;
+	}
+	
+	/**
+	 * Get a predicate matching nodes whose name matches any of the given names
+	 * @param names The names to match
+	 * @return A predicate matching nodes by name
+	 */
+	private Predicate<XMLNode> named(List<String> names) {
+		if(names.size() == 1) {
+			final String name = names.get(0);
+			return n -> n.name() == name || n.name().equals(name);
+		}
+		final Set<String> set = new HashSet<String>(names);
+		return n -> set.contains(n.name());
 	}
 	
 	/**
@@ -162,10 +275,8 @@ public abstract class XMLContainer implements Cloneable {
 	 * @return A list of nodes that were removed
 	 */
 	public List<XMLNode> removeAll(List<String> names) {
-		List<XMLNode> removed = get(names);
-		for(XMLNode n : removed) {
-			_nodes.remove(n);
-		}
+		List<XMLNode> removed = new ArrayList<XMLNode>();
+		removeIf(named(names), removed);
 		return removed;
 	}
 	
@@ -191,11 +302,9 @@ public abstract class XMLContainer implements Cloneable {
 	 * of the given attributes
 	 * @return A list of nodes that were removed
 	 */
-	public List<XMLNode> removeAll(List<String> names, List<String> attributes, boolean strict) {
-		List<XMLNode> removed = get(names, attributes, strict);
-		for(XMLNode n : removed) {
-			_nodes.remove(n);
-		}
+	public List<XMLNode> removeAll(List<String> names, final List<String> attributes, final boolean strict) {
+		List<XMLNode> removed = new ArrayList<XMLNode>();
+		removeIf(named(names).and(n -> n.hasAttributes(attributes, strict)), removed);
 		return removed;
 	}
 	
@@ -221,11 +330,10 @@ public abstract class XMLContainer implements Cloneable {
 	 * may have any one of the given attribute/value pairs
 	 * @return A list of nodes that were removed
 	 */
-	public List<XMLNode> removeAll(List<String> names, Map<String, String> attributes, boolean strict) {
-		List<XMLNode> removed = get(names, attributes, strict);
-		for(XMLNode n : removed) {
-			_nodes.remove(n);
-		}
+	public List<XMLNode> removeAll(List<String> names, final Map<String, String> attributes,
+			final boolean strict) {
+		List<XMLNode> removed = new ArrayList<XMLNode>();
+		removeIf(named(names).and(n -> n.hasAttributes(attributes, strict)), removed);
 		return removed;
 	}
 	
@@ -237,7 +345,7 @@ public abstract class XMLContainer implements Cloneable {
 		if(isEmpty()) {
 			return null;
 		}
-		return _nodes.get(0);
+		return ownNodes().get(0);
 	}
 	
 	/**
@@ -249,7 +357,7 @@ public abstract class XMLContainer implements Cloneable {
 		if(index < 0 || index >= size()) {
 			return null;
 		}
-		return _nodes.get(index);
+		return ownNodes().get(index);
 	}
 	
 	/**
@@ -269,10 +377,17 @@ public abstract class XMLContainer implements Cloneable {
 	 * @return A list of nodes
 	 */
 	public List<XMLNode> get(List<String> names) {
+		if(names.size() == 1) {
+			Map<String, List<XMLNode>> index = index();
+			if(index != null) {
+				List<XMLNode> nodes = index.get(names.get(0));
+				return nodes == null ? new ArrayList<XMLNode>() : new ArrayList<XMLNode>(nodes);
+			}
+		}
 		List<XMLNode> list = new ArrayList<XMLNode>();
-		for(XMLNode n : _nodes) {
+		for(XMLNode n : ownNodes()) {
 			for(String s : names) {
-				if(n.name().equals(s)) {
+				if(n.name() == s || n.name().equals(s)) {
 					list.add(n);
 					break;
 				}
@@ -290,7 +405,7 @@ public abstract class XMLContainer implements Cloneable {
 	 */
 	public List<XMLNode> get(List<String> attributes, boolean strict) {
 		List<XMLNode> list = new ArrayList<XMLNode>();
-		for(XMLNode n : _nodes) {
+		for(XMLNode n : ownNodes()) {
 			if(n.hasAttributes(attributes, strict)) {
 				list.add(n);
 			}
@@ -307,7 +422,7 @@ public abstract class XMLContainer implements Cloneable {
 	 */
 	public List<XMLNode> get(Map<String, String> attributes, boolean strict) {
 		List<XMLNode> list = new ArrayList<XMLNode>();
-		for(XMLNode n : _nodes) {
+		for(XMLNode n : ownNodes()) {
 			if(n.hasAttributes(attributes, strict)) {
 				list.add(n);
 			}
@@ -385,7 +500,9 @@ public abstract class XMLContainer implements Cloneable {
 	 * Clear this container.
 	 */
 	public void clear() {
+		checkShared();
 		_nodes = new ArrayList<XMLNode>();
+		invalidateIndex();
 	}
 	
 	/**
@@ -416,7 +533,86 @@ public abstract class XMLContainer implements Cloneable {
 		return list;
 	}
 	
-	protected List<XMLNode> cloneNodes() {
+	/**
+	 * Get the index of top-level nodes by name, building it if it is out of date
+	 * @return The index, or null if this container is too small to be worth indexing
+	 */
+	private Map<String, List<XMLNode>> index() {
+		if(_nodes.size() < INDEX_THRESHOLD) {
+			return null;
+		}
+		ownNodes();
+		if(!indexValid(_nodes.size())) {
+			_index = new HashMap<String, List<XMLNode>>();
+			for(XMLNode n : _nodes) {
+				indexNode(n);
+			}
+			_indexedNodes = _nodes;
+			_indexedSize = _nodes.size();
+		}
+		return _index;
+	}
+	
+	/**
+	 * Get the top-level nodes to hand out. If they are still those of the shared container this was cloned from,
+	 * they are cloned first so that they can be changed.
+	 */
+	private List<XMLNode> ownNodes() {
+		if(_nodes instanceof SharedNodes) {
+			return ((SharedNodes) _nodes).nodes();
+		}
+		return _nodes;
+	}
+	
+	private boolean indexValid(int size) {
+		return _index != null && _indexedNodes == _nodes && _indexedSize == size;
+	}
+	
+	/**
+	 * Get whether this container currently has an index of nodes by name
+	 */
+	boolean hasIndex() {
+		return _index != null;
+	}
+	
+	private void indexNode(XMLNode node) {
+		List<XMLNode> nodes = _index.get(node.name());
+		if(nodes == null) {
+			nodes = new ArrayList<XMLNode>(2);
+			_index.put(node.name(), nodes);
+		}
+		nodes.add(node);
+		if(!node._shared) {
+			node.indexedBy(this);
+		}
+	}
+	
+	/**
+	 * Discard the index of nodes by name. This must be called whenever a node is removed from or replaced in
+	 * {@code _nodes}.
+	 */
+	protected void invalidateIndex() {
+		_index = null;
+	}
+	
+	/**
+	 * Clone the top-level nodes in this container. If this container is shared, its nodes are only cloned when
+	 * the list returned is first used.
+	 * @param container The container the list returned will belong to
+	 */
+	protected List<XMLNode> cloneNodes(XMLContainer container) {
+		if(_shared) {
+			if(_nodes.isEmpty()) {
+				return new ArrayList<XMLNode>();
+			}
+
+// The index stays valid for as long as the clone still has these nodes
+
+			container._index = _index;
+			container._indexedNodes = _indexedNodes;
+			container._indexedSize = _indexedSize;
+			return new SharedNodes(container, _nodes, _frozen);
+		}
 		List<XMLNode> nodes = new ArrayList<XMLNode>();
 		for(XMLNode n : _nodes) {
 			nodes.add(n.clone());
@@ -424,4 +620,271 @@ public abstract class XMLContainer implements Cloneable {
 		return nodes;
 	}
 	
+	/**
+	 * Share this container and everything below it, so that cloning any of them takes constant time. A clone
+	 * shares everything it was cloned from until it is changed: changing a node copies the nodes along the path
+	 * down to it, and changing its attributes copies them, but the rest stays shared. Shared nodes cannot be
+	 * changed, so anything that would change them throws a {@link TXMLException}; clone them to get a node that
+	 * can be. Sharing cannot be undone.
+	 * <p>
+	 * Reading, writing or querying a clone copies nothing. The {@code get} methods and {@link #nodes()} copy the
+	 * level of nodes they hand out so that those can be changed, but {@link #descendants()} and queries return
+	 * the shared nodes below the parts of a clone that have not been copied.
+	 * <p>
+	 * A shared tree still builds its indexes of nodes by name as they are first needed, so it is not safe to
+	 * read from several threads at once unless it is frozen with {@link #freeze()}.
+	 * @return this
+	 */
+	public XMLContainer share() {
+		Deque<XMLContainer> open = new ArrayDeque<XMLContainer>();
+		open.push(this);
+		while (!open.isEmpty()) {
+			XMLContainer c = open.pop();
+			if(c._shared) {
+				continue;
+			}
+			c.shareContent();
+			List<XMLNode> shared = c._nodes instanceof SharedNodes ? ((SharedNodes) c._nodes).shared() : null;
+			if(shared != null) {
+
+// Still the nodes of the container it was cloned from, which are already shared, and frozen if it was
+
+				c._frozen = ((SharedNodes) c._nodes).isFrozen();
+				c._nodes = shared;
+			} else {
+				c.invalidateIndex();
+				c._nodes = Collections.unmodifiableList(new ArrayList<XMLNode>(c._nodes));
+				for(XMLNode n : c._nodes) {
+					open.push(n);
+				}
+			}
+			c._shared = true;
+		}
+		return this;
+	}
+	
+	/**
+	 * Freeze this container and everything below it so that it can be read from any number of threads at once
+	 * without locking. Freezing shares the tree, as {@link #share()} does, so nothing can change it and every
+	 * list and map it hands out cannot be changed either; it also builds every index that reading would
+	 * otherwise build as it went, so reading never writes to the tree. Threads must still be given the frozen
+	 * tree safely, for instance through a final or volatile field, a concurrent collection or the start of the
+	 * thread, as with any other object. Clones of a frozen tree can be changed, and are made in constant time;
+	 * freezing a changed clone again only visits the nodes that were copied.
+	 * @return this
+	 */
+	public XMLContainer freeze() {
+		share();
+		Deque<XMLContainer> open = new ArrayDeque<XMLContainer>();
+		open.push(this);
+		while (!open.isEmpty()) {
+			XMLContainer c = open.pop();
+			if(c._frozen) {
+				continue;
+			}
+			c.index();
+			for(XMLNode n : c._nodes) {
+				open.push(n);
+			}
+			c._frozen = true;
+		}
+		return this;
+	}
+	
+	/**
+	 * Share anything held by this container besides its nodes
+	 */
+	protected void shareContent() {
+	}
+	
+	/**
+	 * Get whether this container is shared, and so cannot be changed
+	 * @return true if this container is shared
+	 * @see #share()
+	 */
+	public boolean isShared() {
+		return _shared;
+	}
+	
+	/**
+	 * Check that this container can be changed
+	 * @throws TXMLException If this container is shared
+	 */
+	protected void checkShared() {
+		if(_shared) {
+			throw new TXMLException("Cannot change a shared " + getClass().getSimpleName() + ", clone it first");
+		}
+	}
+	
+	/**
+	 * The list returned by {@code nodes()}. Changes are made to {@code _nodes}, discarding the index of nodes by
+	 * name where needed. Bulk changes are passed on whole, so they take linear time as they would on
+	 * {@code _nodes} itself, and iterators are those of {@code _nodes}, so they fail fast whatever changes it.
+	 */
+	private class NodeList extends AbstractList<XMLNode> implements RandomAccess {
+		
+		@Override
+		public XMLNode get(int index) {
+			return ownNodes().get(index);
+		}
+		
+		@Override
+		public int size() {
+			return _nodes.size();
+		}
+		
+		@Override
+		public XMLNode set(int index, XMLNode node) {
+			checkShared();
+			invalidateIndex();
+			return ownNodes().set(index, node);
+		}
+		
+		@Override
+		public void add(int index, XMLNode node) {
+			checkShared();
+			invalidateIndex();
+			ownNodes().add(index, node);
+			modCount++;
+		}
+		
+		@Override
+		public boolean addAll(int index, Collection<? extends XMLNode> c) {
+			checkShared();
+			invalidateIndex();
+			modCount++;
+			return ownNodes().addAll(index, c);
+		}
+		
+		@Override
+		public XMLNode remove(int index) {
+			checkShared();
+			invalidateIndex();
+			XMLNode node = ownNodes().remove(index);
+			modCount++;
+			return node;
+		}
+		
+		@Override
+		protected void removeRange(int from, int to) {
+			checkShared();
+			invalidateIndex();
+			ownNodes().subList(from, to).clear();
+			modCount++;
+		}
+		
+		@Override
+		public void clear() {
+			checkShared();
+			invalidateIndex();
+			ownNodes().clear();
+			modCount++;
+		}
+		
+		@Override
+		public boolean removeIf(Predicate<? super XMLNode> filter) {
+			checkShared();
+			invalidateIndex();
+			return changed(ownNodes().removeIf(filter));
+		}
+		
+		@Override
+		public boolean removeAll(Collection<?> c) {
+			checkShared();
+			invalidateIndex();
+			return changed(ownNodes().removeAll(c));
+		}
+		
+		@Override
+		public boolean retainAll(Collection<?> c) {
+			checkShared();
+			invalidateIndex();
+			return changed(ownNodes().retainAll(c));
+		}
+		
+		@Override
+		public Iterator<XMLNode> iterator() {
+			return new NodeIterator(0);
+		}
+		
+		@Override
+		public ListIterator<XMLNode> listIterator(int index) {
+			return new NodeIterator(index);
+		}
+		
+		private boolean changed(boolean changed) {
+			if(changed) {
+				modCount++;
+			}
+			return changed;
+		}
+		
+		/**
+		 * An iterator over {@code _nodes} that makes its changes the same way as the list
+		 */
+		private class NodeIterator implements ListIterator<XMLNode> {
+			
+			private ListIterator<XMLNode>	_it;
+			
+			public NodeIterator(int index) {
+				_it = ownNodes().listIterator(index);
+			}
+			
+			@Override
+			public boolean hasNext() {
+				return _it.hasNext();
+			}
+			
+			@Override
+			public XMLNode next() {
+				return _it.next();
+			}
+			
+			@Override
+			public boolean hasPrevious() {
+				return _it.hasPrevious();
+			}
+			
+			@Override
+			public XMLNode previous() {
+				return _it.previous();
+			}
+			
+			@Override
+			public int nextIndex() {
+				return _it.nextIndex();
+			}
+			
+			@Override
+			public int previousIndex() {
+				return _it.previousIndex();
+			}
+			
+			@Override
+			public void remove() {
+				checkShared();
+				invalidateIndex();
+				_it.remove();
+				modCount++;
+			}
+			
+			@Override
+			public void set(XMLNode node) {
+				checkShared();
+				invalidateIndex();
+				_it.set(node);
+			}
+			
+			@Override
+			public void add(XMLNode node) {
+				checkShared();
+				invalidateIndex();
+				_it.add(node);
+				modCount++;
+			}
+			
+		}
+		
+	}
+	
 }
@@ -0,0 +1,422 @@
+package com.kill3rtaco.txml;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A pull parser over an {@link XMLTokener}. Each call to {@link #next()} moves the cursor to the next event in
+ * the source, without building any {@link XMLNode}s. Only the names of the currently open elements are kept,
+ * so documents far larger than the heap may be read.
+ * <p>
+ * The source is tokenized by the same rules as {@link TXML#parseXML(XMLTokener)}: comments, CDATA sections,
+ * declarations and the XML declaration are skipped, and an element may not contain both text and other
+ * elements.
+ * @author KILL3RTACO
+ *
+ */
+public class XMLCursor {
+
+	/** The cursor is at the start of an element. {@link #name()} and {@link #attributes()} are available. */
+	public static final int	START_ELEMENT	= 1;
+
+	/** The cursor is at an attribute of the element just started. {@link #attributeName()} and
+	 * {@link #attributeValue()} are available. */
+	public static final int	ATTRIBUTE		= 2;
+
+	/** The cursor is at a run of text within an element. {@link #text()} is available. */
+	public static final int	TEXT			= 3;
+
+	/** The cursor is at the end of an element. {@link #name()} and {@link #isSelfEnding()} are available. */
+	public static final int	END_ELEMENT		= 4;
+
+	/** The cursor is past the last element in the source. */
+	public static final int	END_DOCUMENT	= 5;
+
+	/** The cursor is at a processing instruction. {@link #name()} is its target and {@link #text()} its data. */
+	public static final int	PROCESSING_INSTRUCTION	= 6;
+
+	// Flags kept for each open element
+	private static final byte	HAS_TEXT		= 1;
+	private static final byte	HAS_NODES		= 2;
+
+	private XMLTokener			_x;
+	private String[]			_open;
+	private byte[]				_content;
+	private int					_depth;
+	private int					_event;
+	private int					_textStart;
+	private boolean				_inTag, _pendingEnd, _topLevelText, _selfEnding;
+	private Object				_token;
+	private String				_name, _attrName, _attrValue, _text;
+	private AttributeMap		_attributes;
+
+	/**
+	 * Creates a cursor over the given XMLTokener
+	 * @param x The XMLTokener to read from
+	 */
+	public XMLCursor(XMLTokener x) {
+		_x = x;
+		_open = new String[16];
+		_content = new byte[16];
+		_depth = 0;
+		_event = 0;
+	}
+
+	/**
+	 * Move back to the start of the document, once the XMLTokener has been given a new source. The stack of
+	 * open elements is kept at the size it has grown to.
+	 */
+	void reset() {
+		_depth = 0;
+		_event = 0;
+		_inTag = false;
+		_pendingEnd = false;
+		_topLevelText = false;
+		_selfEnding = false;
+		_token = null;
+		_name = null;
+		_attrName = null;
+		_attrValue = null;
+		_text = null;
+		_attributes = null;
+		Arrays.fill(_open, null);
+	}
+
+	/**
+	 * Creates a cursor over a source string
+	 * @param source The string to read from
+	 */
+	public XMLCursor(String source) {
+		this(new XMLTokener(source));
+	}
+
+	/**
+	 * Creates a cursor over a Reader
+	 * @param source The reader to read from
+	 */
+	public XMLCursor(Reader source) {
+		this(new XMLTokener(source));
+	}
+
+	/**
+	 * Creates a cursor over a stream, decoded using the platform's default charset
+	 * @param source The stream to read from
+	 */
+	public XMLCursor(InputStream source) {
+		this(new XMLTokener(source));
+	}
+
+	/**
+	 * Move to the next event in the source.
+	 * @return The event moved to, one of {@link #START_ELEMENT}, {@link #ATTRIBUTE}, {@link #TEXT},
+	 * {@link #END_ELEMENT}, {@link #PROCESSING_INSTRUCTION} or {@link #END_DOCUMENT}
+	 * @throws TXMLException If the source is not well formed
+	 */
+	public int next() {
+		if(_event == END_DOCUMENT) {
+			return END_DOCUMENT;
+		}
+		if(_pendingEnd) {
+			_pendingEnd = false;
+			return _event = END_ELEMENT;
+		}
+		while (_inTag) {
+			int event = nextInTag();
+			if(event == ATTRIBUTE && _attributes != null) {
+				continue;
+			} else if(event != 0) {
+				return _event = event;
+			}
+		}
+		return _event = nextContent();
+	}
+
+	/**
+	 * Gets whether there are more events to move to
+	 * @return true if the cursor is not yet at {@link #END_DOCUMENT}
+	 */
+	public boolean hasNext() {
+		return _event != END_DOCUMENT;
+	}
+
+	/**
+	 * Get the event the cursor is at
+	 * @return The current event, or 0 if {@link #next()} has not been called
+	 */
+	public int event() {
+		return _event;
+	}
+
+	/**
+	 * Get how many elements are open at the current event. The element being started or ended counts as open.
+	 * @return The nesting depth of the current event
+	 */
+	public int depth() {
+		return _inTag || _event == END_ELEMENT ? _depth + 1 : _depth;
+	}
+
+	/**
+	 * Get the name of the element being started or ended, or whose attribute is being read.
+	 * @return The name of the current element
+	 */
+	public String name() {
+		return _name;
+	}
+
+	/**
+	 * Get the name of the current attribute
+	 * @return The name of the attribute at an {@link #ATTRIBUTE} event
+	 */
+	public String attributeName() {
+		return _attrName;
+	}
+
+	/**
+	 * Get the value of the current attribute
+	 * @return The value of the attribute at an {@link #ATTRIBUTE} event
+	 */
+	public String attributeValue() {
+		return _attrValue;
+	}
+
+	/**
+	 * Get the text of the current event
+	 * @return The text at a {@link #TEXT} event
+	 */
+	public String text() {
+		return _text;
+	}
+
+	/**
+	 * Get where the text of the current event starts, before any leading whitespace. Only for cursors over a
+	 * character array read in place, where the text ends at the tokener's position.
+	 * @return The index of the text at a {@link #TEXT} event within the array
+	 */
+	int textStart() {
+		return _textStart;
+	}
+
+	/**
+	 * Gets whether the element just ended ended itself (ex. {@code <rt bleep="bloop"/>})
+	 * @return Whether the element ended at an {@link #END_ELEMENT} event ends itself
+	 */
+	public boolean isSelfEnding() {
+		return _selfEnding;
+	}
+
+	/**
+	 * Read all the attributes of the element just started. The attributes will not be reported as
+	 * {@link #ATTRIBUTE} events afterwards.
+	 * @return The attributes of the element
+	 * @throws TXMLException If the cursor is not at a {@link #START_ELEMENT} event
+	 */
+	public AttributeMap attributes() {
+		if(_event != START_ELEMENT) {
+			throw new TXMLException("Attributes are only available at the start of an element");
+		}
+		if(_attributes == null) {
+			readAttributes(new AttributeMap());
+		}
+		return _attributes;
+	}
+
+	/**
+	 * Read all the attributes of the element just started into the given AttributeMap, so that a single map
+	 * may be reused for every element.
+	 * @param attributes An empty AttributeMap to put the attributes in
+	 */
+	void readAttributes(AttributeMap attributes) {
+		_attributes = attributes;
+		while (_inTag) {
+			int event = nextInTag();
+			if(event == ATTRIBUTE) {
+				_attributes.put(_attrName, _attrValue);
+			} else if(event == END_ELEMENT) {
+				_pendingEnd = true;
+			}
+		}
+	}
+
+	/**
+	 * Skip the element just started and everything it contains, without reading them. The element is not
+	 * reported as ending. Only for cursors over a character array read in place.
+	 * @param end The index just past the end of the element
+	 */
+	void skipElement(int end) {
+		_inTag = false;
+		_token = null;
+		_x.seek(end);
+	}
+
+	/**
+	 * Read the next token inside a start tag
+	 * @return {@link #ATTRIBUTE}, {@link #END_ELEMENT} if the tag ends itself, or 0 if the tag was closed
+	 */
+	private int nextInTag() {
+		Object token = _token != null ? _token : _x.nextToken();
+		_token = null;
+		if(token instanceof String) {
+
+// attribute = value
+
+			_attrName = (String) token;
+			token = _x.nextToken();
+			if(token == TXML.EQ) {
+				token = _x.nextToken();
+				if(!(token instanceof String)) {
+					throw _x.syntaxError("Missing value");
+				}
+				_attrValue = (String) token;
+			} else {
+				_attrValue = "";
+				_token = token;
+			}
+			return ATTRIBUTE;
+		}
+		_inTag = false;
+
+// Empty tag <.../>
+
+		if(token == TXML.SLASH) {
+			if(_x.nextToken() != TXML.GT) {
+				throw _x.syntaxError("Misshaped tag");
+			}
+			_selfEnding = true;
+			return END_ELEMENT;
+		}
+		if(token != TXML.GT) {
+			throw _x.syntaxError("Misshaped tag");
+		}
+		push(_name);
+		return 0;
+	}
+
+	/**
+	 * Read content until the next event
+	 * @return The event read
+	 */
+	private int nextContent() {
+		for(;;) {
+			if(_depth == 0 && !_topLevelText && !_x.moreContent()) {
+				return END_DOCUMENT;
+			}
+			_textStart = _x.position();
+			Object token = _x.nextContent();
+			if(token == null) {
+				throw _x.syntaxError("Bad XML");
+			} else if(token == TXML.LT) {
+				token = _x.nextToken();
+				if(token == TXML.SLASH) {
+
+// Close tag </
+
+					token = _x.nextToken();
+					if(!(token instanceof String)) {
+						throw new TXMLException("Expected a closing name instead of '" + token + "'.");
+					}
+					if(_x.nextToken() != TXML.GT) {
+						throw _x.syntaxError("Misshaped close tag");
+					}
+					if(_depth == 0) {
+						throw _x.syntaxError("Unexpected close tag '" + token + "'");
+					}
+					_depth -= 1;
+					_name = _open[_depth];
+					_open[_depth] = null;
+					if(!token.equals(_name)) {
+						throw _x.syntaxError("Mismatched '" + _name + "' and '" + token + "'");
+					}
+					_selfEnding = false;
+					return END_ELEMENT;
+				} else if(token == TXML.BANG) {
+					TXML.skipBang(_x);
+				} else if(token == TXML.QUEST) {
+
+// <?
+
+					if(readProcessingInstruction()) {
+						return PROCESSING_INSTRUCTION;
+					}
+				} else if(token instanceof String) {
+
+// Open tag <
+
+					if(_depth > 0) {
+						if((_content[_depth - 1] & HAS_TEXT) != 0) {
+							throw _x.syntaxError("Nodes cannot contain text and nodes");
+						}
+						_content[_depth - 1] |= HAS_NODES;
+					} else {
+						_topLevelText = false;
+					}
+					_name = (String) token;
+					_attributes = null;
+					_selfEnding = false;
+					_inTag = true;
+					return START_ELEMENT;
+				} else {
+					throw _x.syntaxError("Misshaped tag");
+				}
+			} else if(_depth == 0) {
+				_topLevelText = true;
+			} else {
+				if((_content[_depth - 1] & HAS_NODES) != 0) {
+					throw _x.syntaxError("XMLNodes cannot contain text and nodes");
+				}
+				_text = token.toString();
+				if(!_text.isEmpty()) {
+					_content[_depth - 1] |= HAS_TEXT;
+					return TEXT;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read a processing instruction whose {@code <?} has just been read
+	 * @return false if it was the XML declaration, which is not reported
+	 */
+	private boolean readProcessingInstruction() {
+		String content = _x.skipPast("?>");
+		if(content.endsWith("?>")) {
+			content = content.substring(0, content.length() - 2);
+		}
+		int i = 0;
+		while (i < content.length() && !Character.isWhitespace(content.charAt(i))) {
+			i++;
+		}
+		_name = content.substring(0, i);
+		_text = content.substring(i).trim();
+		return !_name.equals("xml");
+	}
+
+	private void push(String name) {
+		if(_depth == _open.length) {
+			_open = Arrays.copyOf(_open, _depth * 2);
+			_content = Arrays.copyOf(_content, _depth * 2);
+		}
+		_open[_depth] = name;
+		_content[_depth] = 0;
+		_depth += 1;
+	}
+
+}
@@ -1,11 +1,19 @@
 package com.kill3rtaco.txml;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /*
  * TXML
@@ -49,11 +57,51 @@ public class XMLDocument extends XMLContainer {
 	}
 	
 	/**
-	 * Construct an XMLDocument from an InputStream
+	 * Constructs an XMLDocument from a file
+	 * @param file The file to read from
+	 * @param charset The charset the file is encoded in
+	 * @throws FileNotFoundException If the file was not found
+	 */
+	public XMLDocument(File file, Charset charset) throws FileNotFoundException {
+		this(new FileInputStream(file), charset);
+	}
+	
+	/**
+	 * Constructs an XMLDocument from a file, decoded using the platform's default charset. The file is
+	 * memory-mapped rather than read through a stream.
+	 * @param path The file to read from
+	 * @throws TXMLException If the file could not be read
+	 */
+	public XMLDocument(Path path) {
+		this(TXML.parseXML(path));
+	}
+	
+	/**
+	 * Constructs an XMLDocument from a file. The file is memory-mapped rather than read through a stream.
+	 * @param path The file to read from
+	 * @param charset The charset the file is encoded in
+	 * @throws TXMLException If the file could not be read
+	 */
+	public XMLDocument(Path path, Charset charset) {
+		this(TXML.parseXML(path, charset));
+	}
+	
+	/**
+	 * Construct an XMLDocument from an InputStream, decoded using the platform's default charset. The stream
+	 * is closed once it has been read.
 	 * @param stream The stream to read from
 	 */
 	public XMLDocument(InputStream stream) {
-		this(TXML.stringFromStream(stream));
+		this(TXML.parseXML(stream));
+	}
+	
+	/**
+	 * Construct an XMLDocument from an InputStream. The stream is closed once it has been read.
+	 * @param stream The stream to read from
+	 * @param charset The charset to decode the stream with
+	 */
+	public XMLDocument(InputStream stream, Charset charset) {
+		this(TXML.parseXML(stream, charset));
 	}
 	
 	/**
@@ -94,22 +142,158 @@ public class XMLDocument extends XMLContainer {
 	 * @return this as a string
 	 */
 	public String toString(int indentFactor) {
-		if(indentFactor < 0) {
-			indentFactor = 0;
+		StringBuilder sb = new StringBuilder();
+		writeTo(sb, indentFactor);
+		return sb.toString();
+	}
+	
+	/**
+	 * Write this XMLDocument to an Appendable using the given indentFactor. The output is the same as
+	 * {@code toString(indentFactor)}, but is written directly to {@code out} rather than built in memory.
+	 * 
+	 * @param out Where to write to
+	 * @param indentFactor How many spaces to use every indent
+	 * @throws TXMLException If the Appendable throws an IOException
+	 */
+	public void writeTo(Appendable out, int indentFactor) {
+		new XMLWriter(out, indentFactor).write(_nodes);
+	}
+	
+	/**
+	 * Write this XMLDocument to a stream using the default indentFactor (TXML.INDENT_FACTOR). The stream is
+	 * flushed, but not closed.
+	 * 
+	 * @param out The stream to write to
+	 * @param charset The charset to encode the document with
+	 * @throws TXMLException If the stream throws an IOException
+	 */
+	public void writeTo(OutputStream out, Charset charset) {
+		writeTo(out, charset, TXML.INDENT_FACTOR);
+	}
+	
+	/**
+	 * Write this XMLDocument to a stream using the given indentFactor. The stream is flushed, but not closed.
+	 * 
+	 * @param out The stream to write to
+	 * @param charset The charset to encode the document with
+	 * @param indentFactor How many spaces to use every indent
+	 * @throws TXMLException If the stream throws an IOException
+	 */
+	public void writeTo(OutputStream out, Charset charset, int indentFactor) {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, charset), 65536);
+		writeTo(writer, indentFactor);
+		try {
+			writer.flush();
+		} catch (IOException e) {
+			throw new TXMLException(e);
+		}
+	}
+	
+	/**
+	 * Write this XMLDocument to an Appendable using the given indentFactor, rendering it on the given pool.
+	 * Subtrees are rendered into buffers of their own at the same time, and written to {@code out} in order as
+	 * they finish, so the output is the same as {@code writeTo(out, indentFactor)}. This document must not be
+	 * modified while it is written.
+	 * 
+	 * @param out Where to write to
+	 * @param indentFactor How many spaces to use every indent
+	 * @param pool The pool to render on
+	 * @throws TXMLException If the Appendable throws an IOException
+	 */
+	public void writeTo(Appendable out, int indentFactor, ForkJoinPool pool) {
+		new ParallelWriter(out, indentFactor, pool).write(_nodes);
+	}
+	
+	/**
+	 * Write this XMLDocument to a stream using the given indentFactor, rendering and encoding it on the given
+	 * pool. The output is the same as {@code writeTo(out, charset, indentFactor)}. The stream is flushed, but
+	 * not closed.
+	 * 
+	 * @param out The stream to write to
+	 * @param charset The charset to encode the document with
+	 * @param indentFactor How many spaces to use every indent
+	 * @param pool The pool to render on
+	 * @throws TXMLException If the stream throws an IOException
+	 * @see #writeTo(Appendable, int, ForkJoinPool)
+	 */
+	public void writeTo(OutputStream out, Charset charset, int indentFactor, ForkJoinPool pool) {
+		Writer writer = null;
+		if(ParallelWriter.encodesInPieces(charset)) {
+			new ParallelWriter(out, charset, indentFactor, pool).write(_nodes);
+		} else {
+			writer = new BufferedWriter(new OutputStreamWriter(out, charset), 65536);
+			writeTo(writer, indentFactor, pool);
 		}
-		String str = "";
-		for(XMLNode n : _nodes) {
-			str += n.toString(indentFactor) + (indentFactor > 0 ? "\n" : "");
+		try {
+			if(writer != null) {
+				writer.flush();
+			} else {
+				out.flush();
+			}
+		} catch (IOException e) {
+			throw new TXMLException(e);
 		}
-		return str.trim();
+	}
+	
+	/**
+	 * Write this XMLDocument as a binary snapshot, which {@link #readBinary(Path)} loads without parsing. Names,
+	 * values and text are each written once, and the nodes are written in document order with their flags,
+	 * attributes in order and text, so the document read back is the same as this one. The stream is flushed,
+	 * but not closed.
+	 * 
+	 * @param out The stream to write to
+	 * @throws TXMLException If the stream throws an IOException
+	 */
+	public void writeBinary(OutputStream out) {
+		BinaryFormat.write(_nodes, out);
+	}
+	
+	/**
+	 * Read an XMLDocument from a binary snapshot written by {@link #writeBinary(OutputStream)}. The stream is
+	 * closed once it has been read.
+	 * 
+	 * @param in The stream to read
+	 * @return The document
+	 * @throws TXMLException If the stream could not be read or does not hold a snapshot
+	 */
+	public static XMLDocument readBinary(InputStream in) {
+		return new XMLDocument(BinaryFormat.read(in));
+	}
+	
+	/**
+	 * Read an XMLDocument from a file holding a binary snapshot written by {@link #writeBinary(OutputStream)}.
+	 * The file is memory-mapped and read straight through, with no tokenizing.
+	 * 
+	 * @param path The file to read
+	 * @return The document
+	 * @throws TXMLException If the file could not be read or does not hold a snapshot
+	 */
+	public static XMLDocument readBinary(Path path) {
+		return new XMLDocument(BinaryFormat.read(path));
+	}
+	
+	@Override
+	public XMLDocument share() {
+		super.share();
+		return this;
+	}
+	
+	@Override
+	public XMLDocument freeze() {
+		super.freeze();
+		return this;
 	}
 	
 	/**
 	 * Create an identical clone of this XMLDocument, where the nodes contained within the
-	 * document have the same field values but that {@code doc == clone} returns false.
+	 * document have the same field values but that {@code doc == clone} returns false. Cloning a shared
+	 * document takes constant time.
+	 * @see #share()
 	 */
 	public XMLDocument clone() {
-		return new XMLDocument(cloneNodes());
+		XMLDocument clone = new XMLDocument();
+		clone._nodes = cloneNodes(clone);
+		return clone;
 	}
 	
 }
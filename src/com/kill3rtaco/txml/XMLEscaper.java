@@ -0,0 +1,103 @@
+package com.kill3rtaco.txml;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Escapes text and attribute values as they are written. Each character is classified with a lookup table,
+ * and runs of characters that need no escaping are copied in bulk, so a value with nothing to escape is
+ * written in a single call.
+ * @author KILL3RTACO
+ *
+ */
+final class XMLEscaper {
+
+	private static final String[]	REPLACEMENTS	= {null, "&amp;", "&lt;", "&gt;", "&quot;"};
+
+	// Index into REPLACEMENTS for each ASCII character, or 0 if it is written as is
+	private static final byte[]		TEXT			= new byte[128];
+	private static final byte[]		ATTRIBUTE		= new byte[128];
+
+	static {
+		TEXT['&'] = ATTRIBUTE['&'] = 1;
+		TEXT['<'] = ATTRIBUTE['<'] = 2;
+		TEXT['>'] = ATTRIBUTE['>'] = 3;
+		ATTRIBUTE['"'] = 4;
+	}
+
+	private XMLEscaper() {
+	}
+
+	/**
+	 * Write text, escaping {@code & < >}
+	 * @param out Where to write to
+	 * @param text The text to write
+	 */
+	public static void writeText(Appendable out, String text) throws IOException {
+		write(out, text, TEXT);
+	}
+
+	/**
+	 * Write an attribute value, escaping {@code & < > "}
+	 * @param out Where to write to
+	 * @param value The value to write
+	 */
+	public static void writeAttribute(Appendable out, String value) throws IOException {
+		write(out, value, ATTRIBUTE);
+	}
+
+	private static void write(Appendable out, String s, byte[] table) throws IOException {
+		if(s == null) {
+			out.append("null");
+			return;
+		}
+		int start = 0;
+		int length = s.length();
+		for(int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if(c < 128 && table[c] != 0) {
+				append(out, s, start, i);
+				out.append(REPLACEMENTS[table[c]]);
+				start = i + 1;
+			}
+		}
+		if(start == 0) {
+			out.append(s);
+		} else {
+			append(out, s, start, length);
+		}
+	}
+
+	/**
+	 * Append part of a String. Writers are written to directly, as {@code Writer.append(csq, start, end)} would
+	 * copy the range into a new String first.
+	 */
+	static void append(Appendable out, String s, int start, int end) throws IOException {
+		if(start == end) {
+			return;
+		} else if(out instanceof Writer) {
+			((Writer) out).write(s, start, end - start);
+		} else {
+			out.append(s, start, end);
+		}
+	}
+
+}
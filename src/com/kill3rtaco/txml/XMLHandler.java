@@ -0,0 +1,56 @@
+package com.kill3rtaco.txml;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Receives the contents of a source as it is parsed by {@link TXML#parse(XMLTokener, XMLHandler)}, in
+ * document order.
+ * @author KILL3RTACO
+ *
+ */
+public interface XMLHandler {
+	
+	/**
+	 * Called at the start of an element.
+	 * @param name The name of the element
+	 * @param attributes The attributes of the element. The same AttributeMap is reused for every element, so
+	 * it is only valid until this method returns; {@code clone()} it to keep it.
+	 */
+	public void startElement(String name, AttributeMap attributes);
+	
+	/**
+	 * Called for a run of text within an element. Text outside of the root element is not reported.
+	 * @param text The text, with entities translated and surrounding whitespace trimmed
+	 */
+	public void text(CharSequence text);
+	
+	/**
+	 * Called at the end of an element, including elements that end themselves.
+	 * @param name The name of the element
+	 */
+	public void endElement(String name);
+	
+	/**
+	 * Called for a processing instruction (ex. {@code <?target data?>}). The XML declaration is not reported.
+	 * @param target The target of the instruction
+	 * @param data The rest of the instruction, trimmed
+	 */
+	public void processingInstruction(String target, String data);
+	
+}
@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /*
  * TXML
@@ -35,6 +37,12 @@ public class XMLNode extends XMLContainer {
 	protected boolean		_selfEnding;
 	protected String		_text;
 	
+	// Whether _attributes still belongs to the shared node this node was cloned from
+	private boolean			_borrowedAttributes;
+	
+	// The containers whose index of nodes by name may hold this node: null, an XMLContainer or a List of them
+	private Object			_indexedBy;
+	
 	protected XMLNode() {
 		_name = null;
 		_attributes = null;
@@ -116,6 +124,59 @@ public class XMLNode extends XMLContainer {
 		_text = "";
 	}
 	
+	/**
+	 * Creates an empty node whose name has already been checked with {@link #checkName(String)}
+	 */
+	static XMLNode checked(String name) {
+		XMLNode node = new XMLNode();
+		node._name = name;
+		node._attributes = new AttributeMap();
+		node._selfEnding = false;
+		node._text = "";
+		return node;
+	}
+	
+	/**
+	 * Creates a node whose attributes, text and children are read from its source the first time they are used
+	 */
+	XMLNode(String name, boolean selfEnding, LazyNodes nodes) {
+		super();
+		setName(name);
+		_nodes = nodes;
+		_selfEnding = selfEnding;
+	}
+	
+	/**
+	 * Read this node's attributes, text and children from its source if it was parsed lazily and they have not
+	 * been read yet. Anything that uses {@code _attributes} or {@code _text} directly calls this first. A lazily
+	 * parsed node keeps its {@link LazyNodes}, so this always reads its volatile state and sees everything the
+	 * read set, whichever thread did the reading.
+	 */
+	void load() {
+		if(_nodes instanceof LazyNodes) {
+			((LazyNodes) _nodes).load();
+		}
+	}
+	
+	/**
+	 * Get this node's attributes to change them, copying them first if they belong to the shared node this
+	 * node was cloned from
+	 */
+	private AttributeMap ownAttributes() {
+		load();
+		if(_borrowedAttributes) {
+			_attributes = _attributes.clone();
+			_borrowedAttributes = false;
+		}
+		return _attributes;
+	}
+	
+	@Override
+	protected void shareContent() {
+		load();
+		_attributes.share();
+	}
+	
 	/**
 	 * Get the name of this node. For instance, in the XMLNode representing {@code <node bleep="bloop"/>}, the
 	 * name would be 'node'
@@ -126,11 +187,14 @@ public class XMLNode extends XMLContainer {
 	}
 	
 	/**
-	 * Get a map of all the attributes for this node.
+	 * Get a map of all the attributes for this node. The map cannot be changed if this node is shared.
 	 * @return This nodes attributes
 	 */
 	public AttributeMap attributes() {
-		return _attributes;
+		if(_shared) {
+			return _attributes;
+		}
+		return ownAttributes();
 	}
 	
 	/**
@@ -138,6 +202,7 @@ public class XMLNode extends XMLContainer {
 	 * @return the text contained within this node
 	 */
 	public String text() {
+		load();
 		return _text;
 	}
 	
@@ -147,6 +212,7 @@ public class XMLNode extends XMLContainer {
 	 * @return this
 	 */
 	public XMLNode setText(String text) {
+		checkShared();
 		if(!isEmpty()) {
 			throw new TXMLException("Can only set text of any empty node");
 		} else if(isSelfEnding()) {
@@ -155,6 +221,7 @@ public class XMLNode extends XMLContainer {
 		if(text == null) {
 			text = "";
 		}
+		load();
 		_text = text;
 		return this;
 	}
@@ -164,6 +231,7 @@ public class XMLNode extends XMLContainer {
 	 * @return true if and only if {@code getText().isEmpty()}
 	 */
 	public boolean hasText() {
+		load();
 		return !_text.isEmpty();
 	}
 	
@@ -173,6 +241,7 @@ public class XMLNode extends XMLContainer {
 	 * @return Whether this node has the given attribute or not.
 	 */
 	public boolean hasAttribute(String attr) {
+		load();
 		return _attributes.containsKey(attr);
 	}
 	
@@ -244,6 +313,60 @@ public class XMLNode extends XMLContainer {
 	 * @throws TXMLException If the given name is invalid for any reason
 	 */
 	public XMLNode setName(String name) {
+		checkShared();
+		checkName(name);
+		if(_name != null && !_name.equals(name)) {
+			renamed();
+		}
+		_name = name;
+		return this;
+	}
+	
+	/**
+	 * Record that a container has indexed this node by name, so that renaming this node discards the index.
+	 * Containers that have since discarded their index are forgotten.
+	 */
+	@SuppressWarnings("unchecked")
+	void indexedBy(XMLContainer container) {
+		if(_indexedBy == null || _indexedBy == container
+				|| (_indexedBy instanceof XMLContainer && !((XMLContainer) _indexedBy).hasIndex())) {
+			_indexedBy = container;
+			return;
+		}
+		List<XMLContainer> containers;
+		if(_indexedBy instanceof XMLContainer) {
+			containers = new ArrayList<XMLContainer>(2);
+			containers.add((XMLContainer) _indexedBy);
+			_indexedBy = containers;
+		} else {
+			containers = (List<XMLContainer>) _indexedBy;
+			containers.removeIf(c -> !c.hasIndex());
+		}
+		if(!containers.contains(container)) {
+			containers.add(container);
+		}
+	}
+	
+	/**
+	 * Discard the index of every container that may hold this node under its old name
+	 */
+	@SuppressWarnings("unchecked")
+	private void renamed() {
+		if(_indexedBy instanceof XMLContainer) {
+			((XMLContainer) _indexedBy).invalidateIndex();
+		} else if(_indexedBy != null) {
+			for(XMLContainer c : (List<XMLContainer>) _indexedBy) {
+				c.invalidateIndex();
+			}
+		}
+		_indexedBy = null;
+	}
+	
+	/**
+	 * Check that the given name may be the name of a node
+	 * @throws TXMLException If the given name is invalid for any reason
+	 */
+	static void checkName(String name) {
 		if(name == null || name.isEmpty()) {
 			throw new TXMLException("Names of nodes cannot be null or empty");
 		} else if(name.matches("[0-9" + TXML.PUNC + "](.+)?")) {
@@ -256,8 +379,6 @@ public class XMLNode extends XMLContainer {
 			throw new TXMLException("Name '" + name + "'is invalid,"
 					+ " names of nodes cannot contain spaces");
 		}
-		_name = name;
-		return this;
 	}
 	
 	/**
@@ -277,7 +398,10 @@ public class XMLNode extends XMLContainer {
 	 * @return this
 	 */
 	public XMLNode setAttributeMap(AttributeMap attrs) {
+		checkShared();
+		load();
 		_attributes = attrs;
+		_borrowedAttributes = false;
 		return this;
 	}
 	
@@ -288,6 +412,8 @@ public class XMLNode extends XMLContainer {
 	 * @throws TXMLException If this node is not empty
 	 */
 	public XMLNode setSelfEnding(boolean selfEnding) {
+		checkShared();
+		load();
 		if(selfEnding && !_nodes.isEmpty()) {
 			throw new TXMLException("Not allowed to set selfEnding to true when a node contains nodes");
 		}
@@ -306,7 +432,8 @@ public class XMLNode extends XMLContainer {
 	 * @return this
 	 */
 	public XMLNode setAttribute(String attr, String value) {
-		_attributes.put(attr, value);
+		checkShared();
+		ownAttributes().put(attr, value);
 		return this;
 	}
 	
@@ -320,7 +447,8 @@ public class XMLNode extends XMLContainer {
 	 * @return
 	 */
 	public XMLNode setAttributes(Map<String, String> attrs) {
-		_attributes.putAll(attrs);
+		checkShared();
+		ownAttributes().putAll(attrs);
 		return this;
 	}
 	
@@ -330,6 +458,7 @@ public class XMLNode extends XMLContainer {
 	 * @return The value of the given attribute
 	 */
 	public String getAttribute(String attribute) {
+		load();
 		return _attributes.get(attribute);
 	}
 	
@@ -341,6 +470,21 @@ public class XMLNode extends XMLContainer {
 		return _selfEnding;
 	}
 	
+	/**
+	 * Get a Stream of this node followed by every node below it, in document order. Like
+	 * {@link #descendants()}, the Stream splits by subtree for parallel use.
+	 * @return This node and its descendants
+	 */
+	public Stream<XMLNode> descendantsOrSelf() {
+		return StreamSupport.stream(new DescendantSpliterator(this, _nodes), false);
+	}
+	
+	@Override
+	public void clear() {
+		load();
+		super.clear();
+	}
+	
 	/**
 	 * Convert this XMLNode to a String using the default indentFactor (TXML.INDENT_FACTOR).
 	 * 
@@ -369,38 +513,69 @@ public class XMLNode extends XMLContainer {
 	 * @return this as a string
 	 */
 	public String toString(int indent, int indentFactor) {
-		if(indentFactor < 0) {
-			indentFactor = 0;
-		}
-		boolean se = isSelfEnding(), addNewLines = indentFactor > 0;
-		String nl = (addNewLines ? "\n" : ""), spaces = TXML.getSpaces(indent, indentFactor);
-		String str = spaces + "<" + (_name + " " + _attributes.toString()).trim() + (se ? "/" : "") + ">";
-		if(!se) {
-			if(!hasText()) {
-				str += nl;
-			}
-		}
-		if(hasText()) {
-			return str + _text + "</" + _name + ">";
-		}
-		for(XMLNode n : _nodes) {
-			str += n.toString(indent + 1, indentFactor) + nl;
-		}
-		if(!se) {
-			str += spaces + "</" + _name + ">";
-		}
-		return str;
+		StringBuilder sb = new StringBuilder();
+		writeTo(sb, indent, indentFactor);
+		return sb.toString();
+	}
+	
+	/**
+	 * Write this XMLNode to an Appendable using the default indentFactor (TXML.INDENT_FACTOR). The output is the
+	 * same as {@code toString()}, but is written directly to {@code out} rather than built in memory.
+	 * 
+	 * @param out Where to write to
+	 * @throws TXMLException If the Appendable throws an IOException
+	 */
+	public void writeTo(Appendable out) {
+		writeTo(out, 0, TXML.INDENT_FACTOR);
+	}
+	
+	/**
+	 * Write this XMLNode to an Appendable using the given indent and indentFactor. The output is the same as
+	 * {@code toString(indent, indentFactor)}, but is written directly to {@code out} rather than built in memory.
+	 * 
+	 * @param out Where to write to
+	 * @param indent How many times to indent
+	 * @param indentFactor How many spaces to use every indent
+	 * @throws TXMLException If the Appendable throws an IOException
+	 */
+	public void writeTo(Appendable out, int indent, int indentFactor) {
+		new XMLWriter(out, indentFactor).write(this, indent);
+	}
+	
+	@Override
+	public XMLNode share() {
+		super.share();
+		return this;
+	}
+	
+	@Override
+	public XMLNode freeze() {
+		super.freeze();
+		return this;
 	}
 	
 	/**
 	 * Create an identical clone of this XMLNode, such that the fields within this node and the new node are the
-	 * same, but that {@code node == clone} returns false.
+	 * same, but that {@code node == clone} returns false. Cloning a shared node takes constant time.
+	 * @see #share()
 	 */
 	public XMLNode clone() {
+		load();
+		if(_shared) {
+			XMLNode clone = new XMLNode();
+			clone._name = _name;
+			clone._attributes = _attributes;
+			clone._borrowedAttributes = true;
+			clone._selfEnding = _selfEnding;
+			clone._text = _text;
+			clone._nodes = cloneNodes(clone);
+			return clone;
+		}
 		String name = _name;
-		AttributeMap attrs = _attributes.clone();
-		List<XMLNode> nodes = cloneNodes();
-		XMLNode clone = new XMLNode(name, attrs, nodes);
+		AttributeMap attrs = _borrowedAttributes ? _attributes : _attributes.clone();
+		XMLNode clone = new XMLNode(name, attrs, null);
+		clone._borrowedAttributes = _borrowedAttributes;
+		clone._nodes = cloneNodes(clone);
 		if(hasText()) {
 			clone.setText(_text);
 		} else {
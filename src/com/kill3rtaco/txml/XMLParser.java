@@ -0,0 +1,166 @@
+package com.kill3rtaco.txml;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A parser that can be used for any number of documents, one after another. {@link TXML#parseXML(String)} sets
+ * up a new XMLTokener, window and symbol table for every document, which costs more than parsing a small one;
+ * an XMLParser keeps its window, scratch space and symbol table from one document to the next, along with the
+ * names it has already checked, and only allocates the nodes it builds. Documents are read exactly as by {@link TXML#parseXML(String)}.
+ * <p>
+ * An XMLParser must only be used by one thread at a time. {@link #local()} gets one for the current thread, or
+ * parsers may be pooled.
+ * <pre>
+ * List&lt;XMLNode&gt; nodes = XMLParser.local().parse(message);
+ * </pre>
+ * @author KILL3RTACO
+ *
+ */
+public class XMLParser {
+
+	private static final ThreadLocal<XMLParser>	LOCAL	= new ThreadLocal<XMLParser>() {
+
+		@Override
+		protected XMLParser initialValue() {
+			return new XMLParser();
+		}
+
+	};
+
+	private XMLTokener	_x;
+	private XMLCursor	_cursor;
+
+	// Names already checked by XMLNode.checkName(), kept along with the symbol table
+	private Set<String>	_checked;
+
+	/**
+	 * Create a new XMLParser with its own symbol table
+	 */
+	public XMLParser() {
+		this(new SymbolTable());
+	}
+
+	/**
+	 * Create a new XMLParser that resolves tag and attribute names through the given symbol table
+	 * @param symbols The symbol table to use
+	 */
+	public XMLParser(SymbolTable symbols) {
+		_x = new XMLTokener(symbols);
+		_cursor = new XMLCursor(_x);
+		_checked = new HashSet<String>();
+	}
+
+	/**
+	 * Get the XMLParser for the current thread, creating it the first time
+	 * @return The parser for the current thread
+	 */
+	public static XMLParser local() {
+		return LOCAL.get();
+	}
+
+	/**
+	 * Get the table tag and attribute names are resolved through. It is kept from one document to the next, so
+	 * names seen before are not allocated again.
+	 * @return The symbol table of this parser
+	 */
+	public SymbolTable getSymbolTable() {
+		return _x.getSymbolTable();
+	}
+
+	/**
+	 * Set the source the next call to {@link #parse()} reads
+	 * @param source The string to read from
+	 * @return this
+	 */
+	public XMLParser reset(String source) {
+		_x.reset(source);
+		_cursor.reset();
+		return this;
+	}
+
+	/**
+	 * Set the source the next call to {@link #parse()} reads. The reader is read directly into this parser's
+	 * window, so it does not need to be buffered, and is not closed.
+	 * @param source The reader to read from
+	 * @return this
+	 */
+	public XMLParser reset(Reader source) {
+		_x.reset(source);
+		_cursor.reset();
+		return this;
+	}
+
+	/**
+	 * Set the source the next call to {@link #parse()} reads. The stream is not closed.
+	 * @param source The stream to read from
+	 * @param charset The charset to decode the stream with
+	 * @return this
+	 */
+	public XMLParser reset(InputStream source, Charset charset) {
+		return reset(new InputStreamReader(source, charset));
+	}
+
+	/**
+	 * Parse the source given to the last call to {@code reset}. The source is let go of once it has been read,
+	 * whether or not it could be parsed.
+	 * @return a list of nodes
+	 * @throws TXMLException If the source is not well formed or could not be read
+	 */
+	public List<XMLNode> parse() {
+		try {
+			return TXML.parseXML(_cursor, _checked);
+		} finally {
+			_x.reset((Reader) null);
+			_cursor.reset();
+		}
+	}
+
+	/**
+	 * Parse a source string. This yields the same result as
+	 * <pre>
+	 * reset(source).parse()</pre>
+	 * @param source The string to read from
+	 * @return a list of nodes
+	 * @throws TXMLException If the source is not well formed
+	 */
+	public List<XMLNode> parse(String source) {
+		return reset(source).parse();
+	}
+
+	/**
+	 * Parse everything read from a Reader, which is not closed. This yields the same result as
+	 * <pre>
+	 * reset(source).parse()</pre>
+	 * @param source The reader to read from
+	 * @return a list of nodes
+	 * @throws TXMLException If the source is not well formed or could not be read
+	 */
+	public List<XMLNode> parse(Reader source) {
+		return reset(source).parse();
+	}
+
+}
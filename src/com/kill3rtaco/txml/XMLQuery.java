@@ -0,0 +1,606 @@
+package com.kill3rtaco.txml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A compiled path expression, using a subset of XPath. A query is compiled once and may then be evaluated
+ * against any number of {@link XMLContainer}s and {@link IndexedContainer}s, from any number of threads. The following are supported:
+ * <ul>
+ * <li>{@code a/b} - {@code b} children of {@code a} children of the container</li>
+ * <li>{@code a//b} - {@code b} descendants of {@code a} children of the container. A leading {@code //}
+ * searches all descendants of the container, and a leading {@code /} is the same as none</li>
+ * <li>{@code *} - nodes with any name</li>
+ * <li>{@code [@attr]}, {@code [@attr='value']}, {@code [@attr!='value']} - attribute predicates</li>
+ * <li>{@code [text()='value']}, {@code [text()!='value']} - text predicates</li>
+ * <li>{@code [2]} - positional predicates, counting from 1 among the nodes with the same parent that pass
+ * the name test and the predicates before it</li>
+ * </ul>
+ * Evaluation walks the tree once, in document order, without building intermediate lists. Results are never
+ * repeated, and subtrees that cannot contain a match are skipped.
+ * @author KILL3RTACO
+ *
+ */
+public class XMLQuery {
+
+	private String	_expression;
+	private Step[]	_steps;
+	private long	_childSteps;
+	private int		_counters;
+
+	private XMLQuery(String expression, Step[] steps, int counters) {
+		_expression = expression;
+		_steps = steps;
+		_counters = counters;
+		for(int j = 0; j < steps.length; j++) {
+			if(!steps[j].descendant) {
+				_childSteps |= 1L << j;
+			}
+		}
+	}
+
+	/**
+	 * Compile a path expression
+	 * @param expression The expression to compile
+	 * @return The compiled query
+	 * @throws TXMLException If the expression is not valid
+	 */
+	public static XMLQuery compile(String expression) {
+		return new Parser(expression).parse();
+	}
+
+	/**
+	 * Get a lazily evaluated iterator over the nodes within the given container that this query selects, in
+	 * document order.
+	 * @param context The container to evaluate this query against
+	 * @return An iterator over the selected nodes
+	 */
+	public Iterator<XMLNode> iterator(XMLContainer context) {
+		return new Matcher<XMLNode>(NODES, context._nodes);
+	}
+
+	/**
+	 * Get a lazily evaluated iterator over the nodes within the given container that this query selects, in
+	 * document order.
+	 * @param context The container to evaluate this query against
+	 * @return An iterator over the selected nodes
+	 */
+	public Iterator<IndexedNode> iterator(IndexedContainer context) {
+		return new Matcher<IndexedNode>(INDEXED, context.nodes());
+	}
+
+	/**
+	 * Get a lazily evaluated Stream of the nodes within the given container that this query selects, in
+	 * document order.
+	 * @param context The container to evaluate this query against
+	 * @return A Stream of the selected nodes
+	 */
+	public Stream<XMLNode> stream(XMLContainer context) {
+		return stream(iterator(context));
+	}
+
+	/**
+	 * Get a lazily evaluated Stream of the nodes within the given container that this query selects, in
+	 * document order.
+	 * @param context The container to evaluate this query against
+	 * @return A Stream of the selected nodes
+	 */
+	public Stream<IndexedNode> stream(IndexedContainer context) {
+		return stream(iterator(context));
+	}
+
+	private static <N> Stream<N> stream(Iterator<N> iterator) {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+				Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false);
+	}
+
+	/**
+	 * Get a list of the nodes within the given container that this query selects, in document order.
+	 * @param context The container to evaluate this query against
+	 * @return A list of the selected nodes
+	 */
+	public List<XMLNode> select(XMLContainer context) {
+		return select(iterator(context));
+	}
+
+	/**
+	 * Get a list of the nodes within the given container that this query selects, in document order.
+	 * @param context The container to evaluate this query against
+	 * @return A list of the selected nodes
+	 */
+	public List<IndexedNode> select(IndexedContainer context) {
+		return select(iterator(context));
+	}
+
+	private static <N> List<N> select(Iterator<N> iterator) {
+		List<N> nodes = new ArrayList<N>();
+		while (iterator.hasNext()) {
+			nodes.add(iterator.next());
+		}
+		return nodes;
+	}
+
+	/**
+	 * Get the first node within the given container that this query selects. The tree is only walked as far
+	 * as that node.
+	 * @param context The container to evaluate this query against
+	 * @return The first selected node, or null if none is selected
+	 */
+	public XMLNode selectFirst(XMLContainer context) {
+		Iterator<XMLNode> i = iterator(context);
+		return i.hasNext() ? i.next() : null;
+	}
+
+	/**
+	 * Get the first node within the given container that this query selects. The document is only walked as
+	 * far as that node.
+	 * @param context The container to evaluate this query against
+	 * @return The first selected node, or null if none is selected
+	 */
+	public IndexedNode selectFirst(IndexedContainer context) {
+		Iterator<IndexedNode> i = iterator(context);
+		return i.hasNext() ? i.next() : null;
+	}
+
+	/**
+	 * Get the expression this query was compiled from
+	 * @return The expression
+	 */
+	public String toString() {
+		return _expression;
+	}
+
+	/**
+	 * Walks the tree in document order. Each open container has a bit set in its states for every step j it
+	 * is a context for (it matched steps 1 to j), and in its descendant states for every step j that a
+	 * descendant-axis step j+1 may be applied below it.
+	 */
+	private class Matcher<N> implements Iterator<N> {
+
+		private Tree<N>			_tree;
+		private List<N>[]		_children;
+		private int[]			_next;
+		private long[]			_states, _descendants;
+		private int[][]			_counts;
+		private int				_depth;
+		private N				_match;
+
+		@SuppressWarnings({"rawtypes", "unchecked"})
+		public Matcher(Tree<N> tree, List<N> nodes) {
+			_tree = tree;
+			_children = new List[16];
+			_next = new int[16];
+			_states = new long[16];
+			_descendants = new long[16];
+			_counts = new int[16][];
+			_depth = -1;
+			push(nodes, 1L, _steps[0].descendant ? 1L : 0L);
+		}
+
+		private void push(List<N> children, long states, long descendants) {
+			_depth += 1;
+			if(_depth == _next.length) {
+				int length = _depth * 2;
+				_children = Arrays.copyOf(_children, length);
+				_next = Arrays.copyOf(_next, length);
+				_states = Arrays.copyOf(_states, length);
+				_descendants = Arrays.copyOf(_descendants, length);
+				_counts = Arrays.copyOf(_counts, length);
+			}
+			_children[_depth] = children;
+			_next[_depth] = 0;
+			_states[_depth] = states;
+			_descendants[_depth] = descendants;
+			if(_counters > 0) {
+				if(_counts[_depth] == null) {
+					_counts[_depth] = new int[_counters];
+				} else {
+					Arrays.fill(_counts[_depth], 0);
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (_match == null && _depth >= 0) {
+				List<N> children = _children[_depth];
+				if(_next[_depth] >= children.size()) {
+					_children[_depth] = null;
+					_depth -= 1;
+					continue;
+				}
+				N node = children.get(_next[_depth]++);
+				long parentStates = _states[_depth];
+				long parentDescendants = _descendants[_depth];
+				int[] counts = _counts[_depth];
+				long states = 0;
+				long descendants = parentDescendants;
+				for(int j = 0; j < _steps.length; j++) {
+					Step step = _steps[j];
+					long bit = 1L << j;
+					if((step.descendant ? parentDescendants & bit : parentStates & bit) != 0
+							&& step.matches(_tree, node, counts)) {
+						states |= bit << 1;
+						if(j + 1 < _steps.length && _steps[j + 1].descendant) {
+							descendants |= bit << 1;
+						}
+					}
+				}
+				if(_tree.hasNodes(node) && ((states & _childSteps) != 0 || descendants != 0)) {
+					push(_tree.children(node), states, descendants);
+				}
+				if((states & (1L << _steps.length)) != 0) {
+					_match = node;
+				}
+			}
+			return _match != null;
+		}
+
+		@Override
+		public N next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			N node = _match;
+			_match = null;
+			return node;
+		}
+
+	}
+
+	/**
+	 * How a query reads the nodes of one kind of tree
+	 */
+	private static abstract class Tree<N> {
+
+		abstract boolean hasNodes(N node);
+
+		abstract List<N> children(N node);
+
+		abstract String name(N node);
+
+		abstract String getAttribute(N node, String attribute);
+
+		abstract boolean hasText(N node);
+
+		abstract String text(N node);
+
+	}
+
+	private static final Tree<XMLNode>		NODES	= new Tree<XMLNode>() {
+
+		@Override
+		boolean hasNodes(XMLNode node) {
+			return node.hasNodes();
+		}
+
+		@Override
+		List<XMLNode> children(XMLNode node) {
+			return node._nodes;
+		}
+
+		@Override
+		String name(XMLNode node) {
+			return node.name();
+		}
+
+		@Override
+		String getAttribute(XMLNode node, String attribute) {
+			return node.getAttribute(attribute);
+		}
+
+		@Override
+		boolean hasText(XMLNode node) {
+			return node.hasText();
+		}
+
+		@Override
+		String text(XMLNode node) {
+			return node.text();
+		}
+
+	};
+
+	private static final Tree<IndexedNode>	INDEXED	= new Tree<IndexedNode>() {
+
+		@Override
+		boolean hasNodes(IndexedNode node) {
+			return node.hasNodes();
+		}
+
+		@Override
+		List<IndexedNode> children(IndexedNode node) {
+			return node.nodes();
+		}
+
+		@Override
+		String name(IndexedNode node) {
+			return node.name();
+		}
+
+		@Override
+		String getAttribute(IndexedNode node, String attribute) {
+			return node.getAttribute(attribute);
+		}
+
+		@Override
+		boolean hasText(IndexedNode node) {
+			return node.hasText();
+		}
+
+		@Override
+		String text(IndexedNode node) {
+			return node.text();
+		}
+
+	};
+
+	/**
+	 * A single step of a path: an axis, a name test and any predicates
+	 */
+	private static class Step {
+
+		boolean		descendant;
+		String		name;
+		Predicate[]	predicates;
+
+		<N> boolean matches(Tree<N> tree, N node, int[] counts) {
+			if(name != null && !name.equals(tree.name(node))) {
+				return false;
+			}
+			for(Predicate p : predicates) {
+				if(!p.matches(tree, node, counts)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+	private static abstract class Predicate {
+
+		abstract <N> boolean matches(Tree<N> tree, N node, int[] counts);
+
+	}
+
+	private static class Position extends Predicate {
+
+		private int	_position, _counter;
+
+		Position(int position, int counter) {
+			_position = position;
+			_counter = counter;
+		}
+
+		@Override
+		<N> boolean matches(Tree<N> tree, N node, int[] counts) {
+			return ++counts[_counter] == _position;
+		}
+
+	}
+
+	private static class Attribute extends Predicate {
+
+		private String	_name, _value;
+		private boolean	_equal;
+
+		Attribute(String name, String value, boolean equal) {
+			_name = name;
+			_value = value;
+			_equal = equal;
+		}
+
+		@Override
+		<N> boolean matches(Tree<N> tree, N node, int[] counts) {
+			String value = tree.getAttribute(node, _name);
+			if(_value == null) {
+				return value != null;
+			}
+			return value != null && value.equals(_value) == _equal;
+		}
+
+	}
+
+	private static class Text extends Predicate {
+
+		private String	_value;
+		private boolean	_equal;
+
+		Text(String value, boolean equal) {
+			_value = value;
+			_equal = equal;
+		}
+
+		@Override
+		<N> boolean matches(Tree<N> tree, N node, int[] counts) {
+			if(_value == null) {
+				return tree.hasText(node);
+			}
+			return tree.text(node).equals(_value) == _equal;
+		}
+
+	}
+
+	/**
+	 * Compiles an expression into steps
+	 */
+	private static class Parser {
+
+		private String	_s;
+		private int		_pos;
+		private int		_counters;
+
+		Parser(String expression) {
+			if(expression == null) {
+				throw new TXMLException("Query cannot be null");
+			}
+			_s = expression;
+			_pos = 0;
+			_counters = 0;
+		}
+
+		XMLQuery parse() {
+			List<Step> steps = new ArrayList<Step>();
+			boolean descendant = false;
+			if(_s.startsWith("//")) {
+				descendant = true;
+				_pos = 2;
+			} else if(_s.startsWith("/")) {
+				_pos = 1;
+			}
+			for(;;) {
+				Step step = step();
+				step.descendant = descendant;
+				steps.add(step);
+				if(_pos == _s.length()) {
+					break;
+				} else if(_s.startsWith("//", _pos)) {
+					descendant = true;
+					_pos += 2;
+				} else if(_s.charAt(_pos) == '/') {
+					descendant = false;
+					_pos += 1;
+				} else {
+					throw error("Expected '/'");
+				}
+			}
+			if(steps.size() > 62) {
+				throw error("Too many steps");
+			}
+			return new XMLQuery(_s, steps.toArray(new Step[steps.size()]), _counters);
+		}
+
+		private Step step() {
+			Step step = new Step();
+			if(_pos < _s.length() && _s.charAt(_pos) == '*') {
+				_pos += 1;
+			} else {
+				step.name = name();
+			}
+			List<Predicate> predicates = new ArrayList<Predicate>();
+			while (_pos < _s.length() && _s.charAt(_pos) == '[') {
+				_pos += 1;
+				skipSpaces();
+				predicates.add(predicate());
+				skipSpaces();
+				expect(']');
+			}
+			step.predicates = predicates.toArray(new Predicate[predicates.size()]);
+			return step;
+		}
+
+		private Predicate predicate() {
+			if(_pos < _s.length() && Character.isDigit(_s.charAt(_pos))) {
+				int start = _pos;
+				while (_pos < _s.length() && Character.isDigit(_s.charAt(_pos))) {
+					_pos++;
+				}
+				int position = Integer.parseInt(_s.substring(start, _pos));
+				if(position < 1) {
+					throw error("Positions start at 1");
+				}
+				return new Position(position, _counters++);
+			} else if(_pos < _s.length() && _s.charAt(_pos) == '@') {
+				_pos += 1;
+				String name = name();
+				skipSpaces();
+				if(_pos < _s.length() && _s.charAt(_pos) == ']') {
+					return new Attribute(name, null, true);
+				}
+				boolean equal = operator();
+				return new Attribute(name, literal(), equal);
+			} else if(_s.startsWith("text()", _pos)) {
+				_pos += 6;
+				skipSpaces();
+				if(_pos < _s.length() && _s.charAt(_pos) == ']') {
+					return new Text(null, true);
+				}
+				boolean equal = operator();
+				return new Text(literal(), equal);
+			}
+			throw error("Expected a position, '@' or 'text()'");
+		}
+
+		private boolean operator() {
+			boolean equal = true;
+			if(_s.startsWith("!=", _pos)) {
+				equal = false;
+				_pos += 2;
+			} else {
+				expect('=');
+			}
+			skipSpaces();
+			return equal;
+		}
+
+		private String literal() {
+			if(_pos >= _s.length() || (_s.charAt(_pos) != '\'' && _s.charAt(_pos) != '"')) {
+				throw error("Expected a quoted value");
+			}
+			char quote = _s.charAt(_pos);
+			int end = _s.indexOf(quote, _pos + 1);
+			if(end < 0) {
+				throw error("Unterminated value");
+			}
+			String value = _s.substring(_pos + 1, end);
+			_pos = end + 1;
+			return value;
+		}
+
+		private String name() {
+			int start = _pos;
+			while (_pos < _s.length() && "/[]@=!'\"*() \t\n\r".indexOf(_s.charAt(_pos)) < 0) {
+				_pos++;
+			}
+			if(start == _pos) {
+				throw error("Expected a name");
+			}
+			return _s.substring(start, _pos);
+		}
+
+		private void expect(char c) {
+			if(_pos >= _s.length() || _s.charAt(_pos) != c) {
+				throw error("Expected '" + c + "'");
+			}
+			_pos += 1;
+		}
+
+		private void skipSpaces() {
+			while (_pos < _s.length() && Character.isWhitespace(_s.charAt(_pos))) {
+				_pos++;
+			}
+		}
+
+		private TXMLException error(String message) {
+			return new TXMLException(message + " at " + _pos + " in query '" + _s + "'");
+		}
+
+	}
+
+}
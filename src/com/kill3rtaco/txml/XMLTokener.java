@@ -1,11 +1,10 @@
 package com.kill3rtaco.txml;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
+import java.nio.charset.Charset;
 
 /*
 Copyright (c) 2002 JSON.org
@@ -34,6 +33,11 @@ SOFTWARE.
 /**
  * The XMLTokener extends the JSONTokener to provide additional methods
  * for the parsing of TXML texts.
+ * <p>
+ * Input is read a block at a time into a reusable character window. Names,
+ * quoted values and content runs are scanned directly over that window, and
+ * {@link #back()} may step back any number of characters that are still
+ * held in it.
  * @author JSON.org
  * @version 2012-11-13
  */
@@ -43,13 +47,38 @@ public class XMLTokener {
 	//All occurances of JSONException changed to TXMLException
 	//Methods and constructors from JSONTokener merged to this class
 	
-	private long							character;
+	/** The initial size of the character window */
+	private static final int				BUFFER_SIZE	= 65536;
+	
+	/** How many already consumed characters are kept in the window when it is refilled */
+	private static final int				LOOKBACK	= 1024;
+	
+	// Classes of ASCII characters while scanning a name
+	private static final byte				NAME		= 0;
+	private static final byte				SPACE		= 1;
+	private static final byte				DELIMITER	= 2;
+	private static final byte				BAD			= 3;
+	private static final byte				NUL			= 4;
+	private static final byte[]				NAME_CLASS	= new byte[128];
+	
+	private char[]							buffer;
+	private int								pos;
+	private int								limit;
+	private int								mark;
+	private int								overrun;
 	private boolean							eof;
-	private long							index;
-	private long							line;
-	private char							previous;
 	private Reader							reader;
-	private boolean							usePrevious;
+	private SymbolTable						symbols;
+	
+	// Reused for text and values holding entities, and for the entities themselves
+	private StringBuilder					scratch;
+	private StringBuilder					entityScratch;
+	
+	// The position of buffer[0] within the source
+	private long							baseIndex;
+	private long							baseCharacter;
+	private long							baseLine;
+	private char							basePrevious;
 	
 	/** The table of entity values. It initially contains Character values for
 	 * amp, apos, gt, lt, quot.
@@ -63,43 +92,255 @@ public class XMLTokener {
 		entity.put("gt", TXML.GT);
 		entity.put("lt", TXML.LT);
 		entity.put("quot", TXML.QUOT);
+		
+		for(char c = 0; c < NAME_CLASS.length; c++) {
+			if(Character.isWhitespace(c)) {
+				NAME_CLASS[c] = SPACE;
+			}
+		}
+		NAME_CLASS[0] = NUL;
+		for(char c : ">/=!?[]".toCharArray()) {
+			NAME_CLASS[c] = DELIMITER;
+		}
+		for(char c : "<\"'".toCharArray()) {
+			NAME_CLASS[c] = BAD;
+		}
 	}
 	
 	public XMLTokener(Reader reader) {
-		this.reader = reader.markSupported()
-				? reader
-				: new BufferedReader(reader);
-		this.eof = false;
-		this.usePrevious = false;
-		this.previous = 0;
-		this.index = 0;
-		this.character = 1;
-		this.line = 1;
+		this(reader, new char[BUFFER_SIZE], 0);
 	}
 	
 	public XMLTokener(InputStream inputStream) throws TXMLException {
 		this(new InputStreamReader(inputStream));
 	}
 	
+	public XMLTokener(InputStream inputStream, Charset charset) throws TXMLException {
+		this(new InputStreamReader(inputStream, charset));
+	}
+	
 	public XMLTokener(String s) {
-		this(new StringReader(s));
+		this(null, s.toCharArray(), s.length());
+	}
+	
+	/**
+	 * Read part of a character array in place, without copying it. Positions are counted from the start of the
+	 * array, so errors report where they are within the whole array.
+	 */
+	XMLTokener(char[] chars, int start, int end) {
+		this(chars, start, end, new SymbolTable());
+	}
+	
+	/**
+	 * Read part of a character array in place, sharing a table of names with other XMLTokeners over it
+	 */
+	XMLTokener(char[] chars, int start, int end, SymbolTable symbols) {
+		this(null, chars, end, symbols);
+		this.pos = start;
+	}
+	
+	/**
+	 * Create an XMLTokener with nothing to read until it is given a source by {@code reset}
+	 */
+	XMLTokener(SymbolTable symbols) {
+		this(null, new char[BUFFER_SIZE], 0, symbols);
+	}
+	
+	private XMLTokener(Reader reader, char[] buffer, int limit) {
+		this(reader, buffer, limit, new SymbolTable());
+	}
+	
+	private XMLTokener(Reader reader, char[] buffer, int limit, SymbolTable symbols) {
+		this.reader = reader;
+		this.buffer = buffer;
+		this.limit = limit;
+		this.symbols = symbols;
+		this.scratch = new StringBuilder();
+		this.entityScratch = new StringBuilder();
+		rewind();
+	}
+	
+	/**
+	 * Start reading from a Reader, keeping the window, scratch space and symbol table. A window grown past its
+	 * initial size by an earlier source is dropped rather than kept.
+	 * @param reader The reader to read from, or null to read nothing
+	 */
+	void reset(Reader reader) {
+		if(this.buffer.length > BUFFER_SIZE) {
+			this.buffer = new char[BUFFER_SIZE];
+		}
+		this.reader = reader;
+		this.limit = 0;
+		rewind();
+	}
+	
+	/**
+	 * Start reading a source string, which is copied into the window, keeping the scratch space and symbol
+	 * table. The window grows to fit the string if needed, and is dropped if an earlier source grew it past
+	 * what this one needs.
+	 * @param s The string to read
+	 */
+	void reset(String s) {
+		int length = s.length();
+		if(this.buffer.length < length || this.buffer.length > Math.max(length, BUFFER_SIZE)) {
+			this.buffer = new char[Math.max(length, BUFFER_SIZE)];
+		}
+		s.getChars(0, length, this.buffer, 0);
+		this.reader = null;
+		this.limit = length;
+		rewind();
+	}
+	
+	/**
+	 * Move back to the start of the source, dropping scratch space that an earlier source grew too large to keep
+	 */
+	private void rewind() {
+		if(this.scratch.capacity() > BUFFER_SIZE) {
+			this.scratch = new StringBuilder();
+		}
+		this.pos = 0;
+		this.mark = -1;
+		this.overrun = 0;
+		this.eof = false;
+		this.baseIndex = 0;
+		this.baseCharacter = 1;
+		this.baseLine = 1;
+		this.basePrevious = 0;
+	}
+	
+	/**
+	 * Get the scratch builder for text and values, emptied
+	 */
+	private StringBuilder scratch() {
+		this.scratch.setLength(0);
+		return this.scratch;
+	}
+	
+	/**
+	 * Get the index of the next character within a character array read in place
+	 */
+	int position() {
+		return this.pos;
+	}
+	
+	/**
+	 * Move to the given index within a character array read in place
+	 */
+	void seek(int index) {
+		this.pos = index;
+	}
+	
+	/**
+	 * Get the table tag and attribute names are resolved through
+	 * @return The symbol table of this XMLTokener
+	 */
+	public SymbolTable getSymbolTable() {
+		return this.symbols;
+	}
+	
+	/**
+	 * Set the table tag and attribute names are resolved through, so that it may be shared with other
+	 * XMLTokeners.
+	 * @param symbols The symbol table to use
+	 */
+	public void setSymbolTable(SymbolTable symbols) {
+		this.symbols = symbols;
 	}
 	
 	/**
 	 * Back up one character. This provides a sort of lookahead capability,
 	 * so that you can test for a digit or letter before attempting to parse
-	 * the next number or identifier.
+	 * the next number or identifier. Any character still held in the
+	 * window may be stepped back over.
 	 */
 	public void back() throws TXMLException {
-		if(this.usePrevious || this.index <= 0) {
-			throw new TXMLException("Stepping back two steps is not supported");
+		if(this.overrun > 0) {
+			this.overrun -= 1;
+		} else if(this.pos > 0) {
+			this.pos -= 1;
+		} else {
+			throw new TXMLException("Stepping back past the start of the window is not supported");
 		}
-		this.index -= 1;
-		this.character -= 1;
-		this.usePrevious = true;
 		this.eof = false;
 	}
 	
+	/**
+	 * Refill the window once every character in it has been consumed. Characters from the mark (if set), or
+	 * the last {@link #LOOKBACK} characters, are kept; the window grows if they fill it.
+	 * @return true if at least one more character is available at {@code pos}
+	 */
+	private boolean fill() throws TXMLException {
+		if(this.reader == null) {
+			return false;
+		}
+		int keep = Math.max(0, this.pos - LOOKBACK);
+		if(this.mark >= 0 && this.mark < keep) {
+			keep = this.mark;
+		}
+		if(keep > 0) {
+			advanceBase(keep);
+			System.arraycopy(this.buffer, keep, this.buffer, 0, this.limit - keep);
+			this.pos -= keep;
+			this.limit -= keep;
+			if(this.mark >= 0) {
+				this.mark -= keep;
+			}
+		}
+		if(this.limit == this.buffer.length) {
+			this.buffer = java.util.Arrays.copyOf(this.buffer, this.buffer.length * 2);
+		}
+		try {
+			int n;
+			do {
+				n = this.reader.read(this.buffer, this.limit, this.buffer.length - this.limit);
+			} while (n == 0);
+			if(n < 0) {
+				return false;
+			}
+			this.limit += n;
+			return true;
+		} catch (IOException exception) {
+			throw new TXMLException(exception);
+		}
+	}
+	
+	/**
+	 * Move the start of the window forward, counting the discarded characters into the base position.
+	 * @param count The number of characters being discarded
+	 */
+	private void advanceBase(int count) {
+		long character = this.baseCharacter;
+		long line = this.baseLine;
+		char previous = this.basePrevious;
+		for(int i = 0; i < count; i++) {
+			char c = this.buffer[i];
+			if(previous == '\r') {
+				line += 1;
+				character = c == '\n' ? 0 : 1;
+			} else if(c == '\n') {
+				line += 1;
+				character = 0;
+			} else {
+				character += 1;
+			}
+			previous = c;
+		}
+		this.baseIndex += count;
+		this.baseCharacter = character;
+		this.baseLine = line;
+		this.basePrevious = previous;
+	}
+	
+	/**
+	 * Consume the end of the source, as if a 0 character had been read.
+	 * @return 0
+	 */
+	private char endOfSource() {
+		this.overrun += 1;
+		this.eof = true;
+		return 0;
+	}
+	
 	/**
 	 * Get the hex value of a character (base16).
 	 * @param c A character between '0' and '9' or between 'A' and 'F' or
@@ -120,7 +361,7 @@ public class XMLTokener {
 	}
 	
 	public boolean end() {
-		return this.eof && !this.usePrevious;
+		return this.eof;
 	}
 	
 	/**
@@ -137,40 +378,37 @@ public class XMLTokener {
 		return true;
 	}
 	
+	/**
+	 * Skip whitespace, then determine if the source still contains characters
+	 * that next() can consume.
+	 * @return true if anything other than whitespace remains in the source.
+	 */
+	public boolean moreContent() throws TXMLException {
+		for(;;) {
+			if(this.pos >= this.limit && !this.fill()) {
+				return false;
+			}
+			if(!Character.isWhitespace(this.buffer[this.pos])) {
+				return this.more();
+			}
+			this.pos += 1;
+		}
+	}
+	
 	/**
 	 * Get the next character in the source string.
 	 *
 	 * @return The next character, or 0 if past the end of the source string.
 	 */
 	public char next() throws TXMLException {
-		int c;
-		if(this.usePrevious) {
-			this.usePrevious = false;
-			c = this.previous;
-		} else {
-			try {
-				c = this.reader.read();
-			} catch (IOException exception) {
-				throw new TXMLException(exception);
-			}
-			
-			if(c <= 0) { // End of stream
-				this.eof = true;
-				c = 0;
-			}
+		if(this.pos >= this.limit && !this.fill()) {
+			return endOfSource();
 		}
-		this.index += 1;
-		if(this.previous == '\r') {
-			this.line += 1;
-			this.character = c == '\n' ? 0 : 1;
-		} else if(c == '\n') {
-			this.line += 1;
-			this.character = 0;
-		} else {
-			this.character += 1;
+		char c = this.buffer[this.pos++];
+		if(c == 0) {
+			this.eof = true;
 		}
-		this.previous = (char) c;
-		return this.previous;
+		return c;
 	}
 	
 	/**
@@ -339,21 +577,28 @@ public class XMLTokener {
 	 * @throws TXMLException If the <code>]]&gt;</code> is not found.
 	 */
 	public String nextCDATA() throws TXMLException {
-		char c;
-		int i;
-		StringBuffer sb = new StringBuffer();
-		for(;;) {
-			c = next();
-			if(end()) {
-				throw syntaxError("Unclosed CDATA");
-			}
-			sb.append(c);
-			i = sb.length() - 3;
-			if(i >= 0 && sb.charAt(i) == ']' &&
-					sb.charAt(i + 1) == ']' && sb.charAt(i + 2) == '>') {
-				sb.setLength(i);
-				return sb.toString();
+		int brackets = 0;
+		this.mark = this.pos;
+		try {
+			for(;;) {
+				if(this.pos >= this.limit && !this.fill()) {
+					endOfSource();
+					throw syntaxError("Unclosed CDATA");
+				}
+				char c = this.buffer[this.pos++];
+				if(c == '>' && brackets >= 2) {
+					return new String(this.buffer, this.mark, this.pos - 3 - this.mark);
+				} else if(c == ']') {
+					brackets += 1;
+				} else if(c == 0) {
+					this.eof = true;
+					throw syntaxError("Unclosed CDATA");
+				} else {
+					brackets = 0;
+				}
 			}
+		} finally {
+			this.mark = -1;
 		}
 	}
 	
@@ -368,7 +613,6 @@ public class XMLTokener {
 	 */
 	public Object nextContent() throws TXMLException {
 		char c;
-		StringBuffer sb;
 		do {
 			c = next();
 		} while (Character.isWhitespace(c));
@@ -378,18 +622,46 @@ public class XMLTokener {
 		if(c == '<') {
 			return TXML.LT;
 		}
-		sb = new StringBuffer();
-		for(;;) {
-			if(c == '<' || c == 0) {
-				back();
+		StringBuilder sb = null;
+		this.pos -= 1;
+		this.mark = this.pos;
+		try {
+			for(;;) {
+				if(this.pos >= this.limit && !this.fill()) {
+					break;
+				}
+				c = this.buffer[this.pos];
+				if(c == '<' || c == 0) {
+					break;
+				}
+				if(c == '&') {
+					if(sb == null) {
+						sb = scratch();
+					}
+					sb.append(this.buffer, this.mark, this.pos - this.mark);
+					this.pos += 1;
+					this.mark = -1;
+					sb.append(nextEntity(c));
+					this.mark = this.pos;
+				} else {
+					this.pos += 1;
+				}
+			}
+			if(sb != null) {
+				sb.append(this.buffer, this.mark, this.pos - this.mark);
 				return sb.toString().trim();
 			}
-			if(c == '&') {
-				sb.append(nextEntity(c));
-			} else {
-				sb.append(c);
+			int start = this.mark;
+			int end = this.pos;
+			while (start < end && this.buffer[start] <= ' ') {
+				start += 1;
 			}
-			c = next();
+			while (end > start && this.buffer[end - 1] <= ' ') {
+				end -= 1;
+			}
+			return new String(this.buffer, start, end - start);
+		} finally {
+			this.mark = -1;
 		}
 	}
 	
@@ -401,7 +673,8 @@ public class XMLTokener {
 	 * @throws TXMLException If missing ';' in TXML entity.
 	 */
 	public Object nextEntity(char ampersand) throws TXMLException {
-		StringBuffer sb = new StringBuffer();
+		StringBuilder sb = this.entityScratch;
+		sb.setLength(0);
 		for(;;) {
 			char c = next();
 			if(Character.isLetterOrDigit(c) || c == '#') {
@@ -492,8 +765,6 @@ public class XMLTokener {
 	 */
 	public Object nextToken() throws TXMLException {
 		char c;
-		char q;
-		StringBuffer sb;
 		do {
 			c = next();
 		} while (Character.isWhitespace(c));
@@ -517,128 +788,137 @@ public class XMLTokener {
 				
 			case '"':
 			case '\'':
-				q = c;
-				sb = new StringBuffer();
-				for(;;) {
-					c = next();
-					if(c == 0) {
-						throw syntaxError("Unterminated string");
-					}
-					if(c == q) {
-						return sb.toString();
-					}
-					if(c == '&') {
-						sb.append(nextEntity(c));
-					} else {
-						sb.append(c);
-					}
-				}
+				return nextQuoted(c);
 			default:
 				
 // Name
 				
-				sb = new StringBuffer();
-				for(;;) {
-					sb.append(c);
-					c = next();
-					if(Character.isWhitespace(c)) {
-						return sb.toString();
-					}
-					switch(c) {
-						case 0:
-							return sb.toString();
-						case '>':
-						case '/':
-						case '=':
-						case '!':
-						case '?':
-						case '[':
-						case ']':
-							back();
-							return sb.toString();
-						case '<':
-						case '"':
-						case '\'':
-							throw syntaxError("Bad character in a name");
+				return nextName();
+		}
+	}
+	
+	/**
+	 * Scan the rest of a quoted value whose opening quote has just been read. Entities are translated as in
+	 * {@link #nextContent()}.
+	 * @param quote The quoting character
+	 * @return The value, without its quotes
+	 * @throws TXMLException If the value is not terminated
+	 */
+	private String nextQuoted(char quote) throws TXMLException {
+		StringBuilder sb = null;
+		this.mark = this.pos;
+		try {
+			for(;;) {
+				if(this.pos >= this.limit && !this.fill()) {
+					endOfSource();
+					throw syntaxError("Unterminated string");
+				}
+				char c = this.buffer[this.pos];
+				if(c == quote) {
+					String run = new String(this.buffer, this.mark, this.pos - this.mark);
+					this.pos += 1;
+					return sb == null ? run : sb.append(run).toString();
+				}
+				this.pos += 1;
+				if(c == 0) {
+					this.eof = true;
+					throw syntaxError("Unterminated string");
+				} else if(c == '&') {
+					if(sb == null) {
+						sb = scratch();
 					}
+					sb.append(this.buffer, this.mark, this.pos - 1 - this.mark);
+					this.mark = -1;
+					sb.append(nextEntity(c));
+					this.mark = this.pos;
 				}
+			}
+		} finally {
+			this.mark = -1;
 		}
 	}
 	
-//	/**
-//	 * Skip characters until past the requested string.
-//	 * If it is not found, we are left at the end of the source with a result of false.
-//	 * @param to A string to skip past.
-//	 * @throws TXMLException
-//	 */
-	//return content till given point
+	/**
+	 * Scan the rest of a name whose first character has just been read. The name is resolved through the
+	 * symbol table, so repeated names share one String.
+	 * @return The name
+	 * @throws TXMLException If the name contains a bad character
+	 */
+	private String nextName() throws TXMLException {
+		this.mark = this.pos - 1;
+		try {
+			for(;;) {
+				if(this.pos >= this.limit && !this.fill()) {
+					String name = this.symbols.intern(this.buffer, this.mark, this.pos - this.mark);
+					endOfSource();
+					return name;
+				}
+				char c = this.buffer[this.pos];
+				byte type = c < NAME_CLASS.length ? NAME_CLASS[c] : Character.isWhitespace(c) ? SPACE : NAME;
+				if(type == NAME) {
+					this.pos += 1;
+					continue;
+				}
+				String name = this.symbols.intern(this.buffer, this.mark, this.pos - this.mark);
+				if(type == DELIMITER) {
+					return name;
+				}
+				this.pos += 1;
+				if(type == NUL) {
+					this.eof = true;
+				} else if(type == BAD) {
+					throw syntaxError("Bad character in a name");
+				}
+				return name;
+			}
+		} finally {
+			this.mark = -1;
+		}
+	}
+	
+	/**
+	 * Skip characters until past the requested string.
+	 * If it is not found, we are left at the end of the source.
+	 * @param to A string to skip past.
+	 * @return The characters skipped, including the requested string if it was found
+	 * @throws TXMLException
+	 */
 	public String skipPast(String to) throws TXMLException {
-		boolean b;
-		char c;
-		int i;
-		int j;
-		int offset = 0;
 		int length = to.length();
-		char[] circle = new char[length];
-		
-		String content = "";
-		
-		/*
-		 * First fill the circle buffer with as many characters as are in the
-		 * to string. If we reach an early end, bail.
-		 */
-		
-		for(i = 0; i < length; i += 1) {
-			c = next();
-			if(c == 0) {
-				return content;
-			}
-			content += c;
-			circle[i] = c;
+		if(length == 0) {
+			return "";
 		}
-		
-		/* We will loop, possibly for all of the remaining characters. */
-		
-		for(;;) {
-			j = offset;
-			b = true;
-			
-			/* Compare the circle buffer with the to string. */
-			
-			for(i = 0; i < length; i += 1) {
-				if(circle[j] != to.charAt(i)) {
-					b = false;
-					break;
+		char last = to.charAt(length - 1);
+		this.mark = this.pos;
+		try {
+			for(;;) {
+				if(this.pos >= this.limit && !this.fill()) {
+					String content = new String(this.buffer, this.mark, this.pos - this.mark);
+					endOfSource();
+					return content;
 				}
-				j += 1;
-				if(j >= length) {
-					j -= length;
+				char c = this.buffer[this.pos++];
+				if(c == 0) {
+					this.eof = true;
+					return new String(this.buffer, this.mark, this.pos - 1 - this.mark);
+				}
+				if(c == last && this.pos - this.mark >= length
+						&& regionMatches(this.pos - length, to, length - 1)) {
+					return new String(this.buffer, this.mark, this.pos - this.mark);
 				}
 			}
-			
-			/* If we exit the loop with b intact, then victory is ours. */
-			
-			if(b) {
-				return content;
-			}
-			
-			/* Get the next character. If there isn't one, then defeat is ours. */
-			
-			c = next();
-			if(c == 0) {
-				return content;
-			}
-			content += c;
-			/*
-			 * Shove the character in the circle buffer and advance the
-			 * circle offset. The offset is mod n.
-			 */
-			circle[offset] = c;
-			offset += 1;
-			if(offset >= length) {
-				offset -= length;
+		} finally {
+			this.mark = -1;
+		}
+	}
+	
+	private boolean regionMatches(int offset, String s, int length) {
+		for(int i = 0; i < length; i++) {
+			if(this.buffer[offset + i] != s.charAt(i)) {
+				return false;
 			}
 		}
+		return true;
 	}
 	
 	/**
@@ -649,28 +929,25 @@ public class XMLTokener {
 	 * is not found.
 	 */
 	public char skipTo(char to) throws TXMLException {
-		char c;
+		this.mark = this.pos;
 		try {
-			long startIndex = this.index;
-			long startCharacter = this.character;
-			long startLine = this.line;
-			this.reader.mark(1000000);
-			do {
-				c = this.next();
-				if(c == 0) {
-					this.reader.reset();
-					this.index = startIndex;
-					this.character = startCharacter;
-					this.line = startLine;
+			for(;;) {
+				if(this.pos >= this.limit && !this.fill()) {
+					this.pos = this.mark;
+					return 0;
+				}
+				char c = this.buffer[this.pos];
+				if(c == to) {
 					return c;
+				} else if(c == 0) {
+					this.pos = this.mark;
+					return 0;
 				}
-			} while (c != to);
-		} catch (IOException exc) {
-			throw new TXMLException(exc);
+				this.pos += 1;
+			}
+		} finally {
+			this.mark = -1;
 		}
-		
-		this.back();
-		return c;
 	}
 	
 	/**
@@ -684,7 +961,23 @@ public class XMLTokener {
 	}
 	
 	public String toString() {
-		return " at " + this.index + " [character " + this.character + " line " +
-				this.line + "]";
+		long character = this.baseCharacter;
+		long line = this.baseLine;
+		char previous = this.basePrevious;
+		for(int i = 0; i < this.pos + this.overrun; i++) {
+			char c = i < this.pos ? this.buffer[i] : 0;
+			if(previous == '\r') {
+				line += 1;
+				character = c == '\n' ? 0 : 1;
+			} else if(c == '\n') {
+				line += 1;
+				character = 0;
+			} else {
+				character += 1;
+			}
+			previous = c;
+		}
+		long index = this.baseIndex + this.pos + this.overrun;
+		return " at " + index + " [character " + character + " line " + line + "]";
 	}
 }
@@ -0,0 +1,164 @@
+package com.kill3rtaco.txml;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * TXML
+ * Copyright (c) 2014 Caleb Downs, aka KILL3RTACO
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Writes {@link XMLNode}s to an Appendable in the format of {@link XMLNode#toString(int, int)}. Nodes are
+ * written without recursion, so trees may be nested to any depth. Text and attribute values are escaped by
+ * {@link XMLEscaper}.
+ * @author KILL3RTACO
+ *
+ */
+class XMLWriter {
+
+	private static final String	SPACES	= "                                                                ";
+
+	private Appendable			_out;
+	private int					_indentFactor;
+	private XMLNode[]			_open;
+	private int[]				_next;
+
+	/**
+	 * Create a new XMLWriter
+	 * @param out Where to write to
+	 * @param indentFactor How many spaces to use every indent. If 0, no new lines are written either
+	 */
+	public XMLWriter(Appendable out, int indentFactor) {
+		_out = out;
+		_indentFactor = Math.max(0, indentFactor);
+		_open = new XMLNode[16];
+		_next = new int[16];
+	}
+
+	/**
+	 * Write the given nodes, separated by new lines if the indentFactor is greater than 0
+	 * @param nodes The nodes to write
+	 * @throws TXMLException If the Appendable throws an IOException
+	 */
+	public void write(List<XMLNode> nodes) {
+		for(int i = 0; i < nodes.size(); i++) {
+			if(i > 0) {
+				newLine();
+			}
+			write(nodes.get(i), 0);
+		}
+	}
+
+	/**
+	 * Write the given node and everything it contains
+	 * @param node The node to write
+	 * @param indent How many times to indent the node
+	 * @throws TXMLException If the Appendable throws an IOException
+	 */
+	public void write(XMLNode node, int indent) {
+		if(!writeStart(node, indent)) {
+			return;
+		}
+		int depth = 0;
+		_open[0] = node;
+		_next[0] = 0;
+		while (depth >= 0) {
+			XMLNode parent = _open[depth];
+			if(_next[depth] < parent._nodes.size()) {
+				XMLNode child = parent._nodes.get(_next[depth]++);
+				if(writeStart(child, indent + depth + 1)) {
+					depth += 1;
+					if(depth == _open.length) {
+						_open = Arrays.copyOf(_open, depth * 2);
+						_next = Arrays.copyOf(_next, depth * 2);
+					}
+					_open[depth] = child;
+					_next[depth] = 0;
+				} else {
+					newLine();
+				}
+			} else {
+				writeEnd(parent, indent + depth);
+				_open[depth] = null;
+				depth -= 1;
+				if(depth >= 0) {
+					newLine();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the start tag of a node, and its text if it has any
+	 * @return true if the node's children and end tag are still to be written
+	 */
+	boolean writeStart(XMLNode node, int indent) {
+		node.load();
+		try {
+			spaces(indent * _indentFactor);
+			_out.append('<').append(node._name);
+			if(node._attributes.size() > 0) {
+				_out.append(' ');
+				node._attributes.writeTo(_out);
+			}
+			boolean se = node.isSelfEnding();
+			_out.append(se ? "/>" : ">");
+			if(node.hasText()) {
+				XMLEscaper.writeText(_out, node._text);
+				_out.append("</").append(node._name).append('>');
+				return false;
+			} else if(!se) {
+				newLine();
+			}
+			return true;
+		} catch (IOException e) {
+			throw new TXMLException(e);
+		}
+	}
+
+	void writeEnd(XMLNode node, int indent) {
+		if(node.isSelfEnding()) {
+			return;
+		}
+		try {
+			spaces(indent * _indentFactor);
+			_out.append("</").append(node._name).append('>');
+		} catch (IOException e) {
+			throw new TXMLException(e);
+		}
+	}
+
+	void newLine() {
+		if(_indentFactor > 0) {
+			try {
+				_out.append('\n');
+			} catch (IOException e) {
+				throw new TXMLException(e);
+			}
+		}
+	}
+
+	private void spaces(int count) throws IOException {
+		while (count > 0) {
+			int n = Math.min(count, SPACES.length());
+			XMLEscaper.append(_out, SPACES, 0, n);
+			count -= n;
+		}
+	}
+
+}